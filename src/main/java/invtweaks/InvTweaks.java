@@ -1,6 +1,5 @@
 package invtweaks;
 
-import com.google.common.collect.Multimap;
 import invtweaks.api.IItemTree;
 import invtweaks.api.IItemTreeItem;
 import invtweaks.api.SortingMethod;
@@ -8,6 +7,7 @@ import invtweaks.api.container.ContainerSection;
 import invtweaks.container.ContainerSectionManager;
 import invtweaks.container.DirectContainerManager;
 import invtweaks.container.IContainerManager;
+import invtweaks.container.MirroredContainerManager;
 import invtweaks.forge.InvTweaksMod;
 import invtweaks.integration.ItemListChecker;
 import net.minecraft.client.Minecraft;
@@ -18,14 +18,9 @@ import net.minecraft.client.gui.inventory.GuiContainer;
 import net.minecraft.client.gui.inventory.GuiCrafting;
 import net.minecraft.client.gui.inventory.GuiInventory;
 import net.minecraft.client.resources.I18n;
-import net.minecraft.enchantment.Enchantment;
-import net.minecraft.enchantment.EnchantmentHelper;
-import net.minecraft.entity.SharedMonsterAttributes;
-import net.minecraft.entity.ai.attributes.AttributeModifier;
 import net.minecraft.init.Items;
 import net.minecraft.init.SoundEvents;
 import net.minecraft.inventory.Container;
-import net.minecraft.inventory.EntityEquipmentSlot;
 import net.minecraft.inventory.Slot;
 import net.minecraft.item.*;
 import net.minecraft.util.NonNullList;
@@ -126,6 +121,18 @@ public class InvTweaks extends InvTweaksObfuscation {
         }
     }
 
+    /**
+     * Reloads the configuration in the background if it was modified since, so that the first sort in a world doesn't
+     * freeze the game.
+     */
+    public void warmUp() {
+        cfgManager.loadInBackground().whenComplete((loaded, e) -> {
+            if(e != null || !loaded) {
+                log.error("Failed to load the configuration!", e);
+            }
+        });
+    }
+
     public static void logInGameStatic(@NotNull String message) {
         InvTweaks.getInstance().logInGame(message);
     }
@@ -153,12 +160,7 @@ public class InvTweaks extends InvTweaksObfuscation {
 
     @NotNull
     public static IContainerManager getContainerManager(@NotNull Container container) {
-        // TODO: Reenable when it doesn't just break everything
-        //if(getConfigManager().getConfig().getProperty(InvTweaksConfig.PROP_ENABLE_CONTAINER_MIRRORING).equals(InvTweaksConfig.VALUE_TRUE)) {
-        //    return new MirroredContainerManager(container);
-        //} else {
         return new DirectContainerManager(container);
-        //}
     }
 
     @NotNull
@@ -166,6 +168,25 @@ public class InvTweaks extends InvTweaksObfuscation {
         return getContainerManager(InvTweaksObfuscation.getCurrentContainer());
     }
 
+    /**
+     * Manager for batches of operations ended by {@link IContainerManager#applyChanges}, run on a copy of the container
+     * when container mirroring is enabled.
+     */
+    @NotNull
+    public static IContainerManager getMirroredContainerManager(@NotNull Container container) {
+        @Nullable InvTweaksConfigManager cfgManager = getConfigManager();
+        if(cfgManager != null && cfgManager.getConfig() != null && cfgManager.getConfig().getProperty(InvTweaksConfig.PROP_ENABLE_CONTAINER_MIRRORING).equals(InvTweaksConfig.VALUE_TRUE)) {
+            return new MirroredContainerManager(container);
+        } else {
+            return new DirectContainerManager(container);
+        }
+    }
+
+    @NotNull
+    public static IContainerManager getCurrentMirroredContainerManager() {
+        return getMirroredContainerManager(InvTweaksObfuscation.getCurrentContainer());
+    }
+
     private static int getContainerRowSize(@NotNull GuiContainer guiContainer) {
         return getSpecialChestRowSize(guiContainer.inventorySlots);
     }
@@ -195,18 +216,17 @@ public class InvTweaks extends InvTweaksObfuscation {
         return InvTweaksConst.INGAME_LOG_PREFIX + ((level.equals(Level.SEVERE)) ? "[ERROR] " : "") + message;
     }
 
-    private static int compareMaxDamage(ItemStack i, ItemStack j) {
+    private static int compareMaxDamage(@NotNull InvTweaksItemComparisonKey i, @NotNull InvTweaksItemComparisonKey j) {
         //Use durability to sort, favoring more durable items.
-        int maxDamage1 = i.getMaxDamage() <= 0 ? Integer.MAX_VALUE : i.getMaxDamage();
-        int maxDamage2 = j.getMaxDamage() <= 0 ? Integer.MAX_VALUE : j.getMaxDamage();
-        return maxDamage2 - maxDamage1;
+        return j.maxDamage - i.maxDamage;
     }
 
-    private static int compareCurDamage(ItemStack i, ItemStack j) {
+    private static int compareCurDamage(@NotNull ItemStack i, @NotNull ItemStack j, @NotNull InvTweaksItemComparisonKey iKey) {
         //Use remaining durability to sort, favoring more damaged.
         int curDamage1 = i.getItemDamage();
         int curDamage2 = j.getItemDamage();
-        if(i.isItemStackDamageable() && !getConfigManager().getConfig().getProperty(InvTweaksConfig.PROP_INVERT_TOOL_DAMAGE).equals(InvTweaksConfig.VALUE_TRUE)) {
+        @Nullable InvTweaksConfig config = getConfigManager().getConfig();
+        if(iKey.damageable && (config == null || !config.getProperty(InvTweaksConfig.PROP_INVERT_TOOL_DAMAGE).equals(InvTweaksConfig.VALUE_TRUE))) {
             return curDamage2 - curDamage1;
         } else {
             return curDamage1 - curDamage2;
@@ -341,7 +361,7 @@ public class InvTweaks extends InvTweaksObfuscation {
         }
 
         try {
-            @NotNull ContainerSectionManager containerMgr = new ContainerSectionManager(ContainerSection.INVENTORY);
+            @NotNull ContainerSectionManager containerMgr = new ContainerSectionManager(getCurrentMirroredContainerManager(), ContainerSection.INVENTORY);
 
             // Find stack slot (look in hotbar only).
             // We're looking for a brand new stack in the hotbar
@@ -362,8 +382,7 @@ public class InvTweaks extends InvTweaksObfuscation {
                 IItemTree tree = config.getTree();
                 @NotNull ItemStack stack = containerMgr.getItemStack(currentSlot);
 
-                // TODO: It looks like Mojang changed the internal name type to ResourceLocation. Evaluate how much of a pain that will be.
-                List<IItemTreeItem> items = tree.getItems(stack.getItem().getRegistryName().toString(), stack.getItemDamage());
+                List<IItemTreeItem> items = tree.getItems(stack.getItem(), stack.getItemDamage());
 
                 List<Integer> preferredPositions = config.getRules().stream().filter(rule -> tree.matches(items, rule.getKeyword())).flatMapToInt(e -> Arrays.stream(e.getPreferredSlots())).boxed().collect(Collectors.toList());
 
@@ -422,7 +441,69 @@ public class InvTweaks extends InvTweaksObfuscation {
         return compareItems(i, j, orderI, orderJ, false);
     }
 
-    int compareItems(@NotNull ItemStack i, @NotNull ItemStack j, int orderI, int orderJ, boolean api) {
+    /**
+     * Tree orders of many stacks at once, for use with {@link #compareItems(ItemStack, ItemStack, int, int, boolean)}.
+     * Each stack is looked up once, instead of once per comparison.
+     *
+     * @param onlyTreeSort If true, items added after the tree was loaded get Integer.MAX_VALUE, as in the API
+     *                     comparisons
+     */
+    @NotNull
+    public int[] getItemOrders(@NotNull List<ItemStack> stacks, boolean onlyTreeSort) {
+        @NotNull int[] orders = new int[stacks.size()];
+        @Nullable InvTweaksConfig config = cfgManager.getConfig();
+        if(config == null) {
+            Arrays.fill(orders, Integer.MAX_VALUE);
+            return orders;
+        }
+        @NotNull InvTweaksItemTree tree = config.getTree();
+        int lastOrder = tree.getLastTreeOrder();
+        int index = 0;
+        for(@NotNull ItemStack stack : stacks) {
+            int order = stack.isEmpty() ? Integer.MAX_VALUE : tree.getItemOrder(stack);
+            orders[index++] = (onlyTreeSort && order > lastOrder) ? Integer.MAX_VALUE : order;
+        }
+        return orders;
+    }
+
+    /**
+     * Sorts stacks with the default algorithm, looking each of them up in the tree only once.
+     */
+    public void sortItems(@NotNull List<ItemStack> stacks, boolean onlyTreeSort) {
+        @NotNull ItemStack[] sortedStacks = stacks.toArray(new ItemStack[0]);
+        @NotNull Integer[] indices = new Integer[sortedStacks.length];
+        for(int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+        try(@NotNull InvTweaksNBTFingerprint.Session ignored = InvTweaksNBTFingerprint.openSession();
+            @NotNull InvTweaksItemComparisonKey.Session ignoredKeys = InvTweaksItemComparisonKey.openSession()) {
+            @NotNull int[] orders = getItemOrders(stacks, onlyTreeSort);
+            Arrays.sort(indices, (i, j) -> compareItems(sortedStacks[i], sortedStacks[j], orders[i], orders[j], onlyTreeSort));
+        }
+        for(int i = 0; i < indices.length; i++) {
+            stacks.set(i, sortedStacks[indices[i]]);
+        }
+    }
+
+    /**
+     * @return For each stack, whether it matches the keyword (an item or category name of the tree)
+     */
+    @NotNull
+    public boolean[] matchKeyword(@NotNull List<ItemStack> stacks, @NotNull String keyword) {
+        @NotNull boolean[] matches = new boolean[stacks.size()];
+        @Nullable InvTweaksConfig config = cfgManager.getConfig();
+        if(config == null || !config.getTree().isKeywordValid(keyword)) {
+            return matches;
+        }
+        IItemTree tree = config.getTree();
+        int index = 0;
+        for(@NotNull ItemStack stack : stacks) {
+            matches[index++] = !stack.isEmpty() && tree.matches(tree.getItems(stack), keyword);
+        }
+        return matches;
+    }
+
+    public int compareItems(@NotNull ItemStack i, @NotNull ItemStack j, int orderI, int orderJ, boolean api) {
         if(i.isEmpty() && j.isEmpty()) {
             //Technically, if both are empty, they are equal.
             if(debugTree) { mostRecentComparison = "Both stacks are Empty."; }
@@ -437,7 +518,8 @@ public class InvTweaks extends InvTweaksObfuscation {
             if(debugTree) { mostRecentComparison = ""; }
             if(api) {
                 if(debugTree) { mostRecentComparison = "API Active, "; }
-                int lastOrder = cfgManager.getConfig().getTree().getLastTreeOrder();
+                @Nullable InvTweaksConfig config = cfgManager.getConfig();
+                int lastOrder = (config != null) ? config.getTree().getLastTreeOrder() : Integer.MAX_VALUE;
                 if(orderI > lastOrder) { orderI = Integer.MAX_VALUE; }
                 if(orderJ > lastOrder) { orderJ = Integer.MAX_VALUE; }
             }
@@ -458,40 +540,40 @@ public class InvTweaks extends InvTweaksObfuscation {
                 return 0;
             }
 
-            Item iItem = i.getItem(), jItem = j.getItem();
+            @NotNull InvTweaksItemComparisonKey iKey = InvTweaksItemComparisonKey.forStack(i), jKey = InvTweaksItemComparisonKey.forStack(j);
             //Sort By Tool type then Harvest Level, (Better first.)
-            int cTool = compareTools(i, j, iItem, jItem);
+            int cTool = compareTools(iKey, jKey);
             if(debugTree) { mostRecentComparison += ", Tool: " + cTool; }
             if(cTool != 0) { return cTool; }
 
             //Sort by main-hand damage capability:  (Higher first, faster first for same damage)
             //Most tools also do damage, so they were tested as tools first.
             //If a tool reaches here, it has the same max durabilty, harvest level, and tool class.
-            int cSword = compareSword(i, j, iItem, jItem);
+            int cSword = compareSword(iKey, jKey);
             if(debugTree) { mostRecentComparison += ", Sword: " + cSword; }
             if(cSword != 0) { return cSword; }
 
             //Sort By Armor utility:  (More First)
-            int cArmor = compareArmor(i, j, iItem, jItem);
+            int cArmor = compareArmor(iKey, jKey);
             if(debugTree) { mostRecentComparison += ", Armor: " + cArmor; }
             if(cArmor != 0) { return cArmor; }
 
             //Sort my display name:
-            int cName = compareNames(i, j);
+            int cName = compareNames(iKey, jKey);
             if(debugTree) { mostRecentComparison += ", Name" + cName; }
             if(cName != 0) { return cName; }
 
             //Sort By enchantments:
-            int cEnchant = compareEnchantment(i, j);
+            int cEnchant = compareEnchantment(iKey, jKey);
             if(cEnchant != 0) { return cEnchant; }
 
             //Use durability to sort, favoring more durable items.  (Non-Tools, Non-Armor, Non-Weapons.)
-            int maxDamage = compareMaxDamage(i, j);
+            int maxDamage = compareMaxDamage(iKey, jKey);
             if(debugTree) { mostRecentComparison += ", Max Damage: " + maxDamage; }
             if(maxDamage != 0) { return maxDamage; }
 
             //Use remaining durability to sort, favoring config option on damaged.
-            int curDamage = compareCurDamage(i, j);
+            int curDamage = compareCurDamage(i, j, iKey);
             if(debugTree) { mostRecentComparison += ", Current Damage: " + curDamage; }
             if(curDamage != 0) { return curDamage; }
 
@@ -503,19 +585,18 @@ public class InvTweaks extends InvTweaksObfuscation {
 
             //Final catch all:
             if(debugTree) {
-                mostRecentComparison += ", Final: " + ObjectUtils.compare(i.getItem().getRegistryName().toString(), j.getItem().getRegistryName().toString());
+                mostRecentComparison += ", Final: " + ObjectUtils.compare(iKey.registryName, jKey.registryName);
             }
-            // TODO: It looks like Mojang changed the internal name type to ResourceLocation. Evaluate how much of a pain that will be.
-            return ObjectUtils.compare(i.getItem().getRegistryName().toString(), j.getItem().getRegistryName().toString());
+            return ObjectUtils.compare(iKey.registryName, jKey.registryName);
 
         }
     }
 
-    private int compareNames(ItemStack i, ItemStack j) {
-        boolean iHasName = i.hasDisplayName();
-        boolean jHasName = j.hasDisplayName();
-        @NotNull String iDisplayName = i.getDisplayName();
-        @NotNull String jDisplayName = j.getDisplayName();
+    private int compareNames(@NotNull InvTweaksItemComparisonKey i, @NotNull InvTweaksItemComparisonKey j) {
+        boolean iHasName = i.hasDisplayName;
+        boolean jHasName = j.hasDisplayName;
+        @NotNull String iDisplayName = i.displayName;
+        @NotNull String jDisplayName = j.displayName;
 
         //Custom named items come first.
         if(iHasName || jHasName) {
@@ -536,15 +617,14 @@ public class InvTweaks extends InvTweaksObfuscation {
         return 0;
     }
 
-    private int compareTools(ItemStack i, ItemStack j, Item iItem, Item jItem) {
-        String toolClass1 = getToolClass(i, iItem);
-        String toolClass2 = getToolClass(j, jItem);
+    private int compareTools(@NotNull InvTweaksItemComparisonKey i, @NotNull InvTweaksItemComparisonKey j) {
+        String toolClass1 = i.toolClass;
+        String toolClass2 = j.toolClass;
 
         if(debugTree) { mostRecentComparison += ", ToolClass (" + toolClass1 + ", " + toolClass2 + ")"; }
-        boolean isTool1 = toolClass1 != "";
-        boolean isTool2 = toolClass2 != "";
+        boolean isTool1 = !toolClass1.isEmpty();
+        boolean isTool2 = !toolClass2.isEmpty();
         if(!isTool1 || !isTool2) {
-            //This should catch any instances where one of the stacks is null.
             return Boolean.compare(isTool2, isTool1);
         } else {
             int toolClassComparison = toolClass1.compareTo(toolClass2);
@@ -552,11 +632,10 @@ public class InvTweaks extends InvTweaksObfuscation {
                 return toolClassComparison;
             }
             // If they were the same type, sort with the better harvest level first.
-            int harvestLevel1 = iItem.getHarvestLevel(i, toolClass1, null, null);
-            int harvestLevel2 = jItem.getHarvestLevel(j, toolClass2, null, null);
-            int toolLevelComparison = harvestLevel2 - harvestLevel1;
+            int harvestLevel1 = i.harvestLevel;
+            int harvestLevel2 = j.harvestLevel;
             if(debugTree) { mostRecentComparison += ", HarvestLevel (" + harvestLevel1 + ", " + harvestLevel2 + ")"; }
-            if(toolLevelComparison != 0) {
+            if(harvestLevel1 != harvestLevel2) {
                 return Integer.compare(harvestLevel2, harvestLevel1);
             }
         }
@@ -565,110 +644,63 @@ public class InvTweaks extends InvTweaksObfuscation {
 
     }
 
-    private int compareSword(ItemStack itemStack1, ItemStack itemStack2, Item iItem, Item jItem) {
-        Multimap<String, AttributeModifier> multimap1 = itemStack1 != null ? itemStack1.getAttributeModifiers(EntityEquipmentSlot.MAINHAND) : null;
-        Multimap<String, AttributeModifier> multimap2 = itemStack2 != null ? itemStack2.getAttributeModifiers(EntityEquipmentSlot.MAINHAND) : null;
-
-        final String attackDamageName = SharedMonsterAttributes.ATTACK_DAMAGE.getName();
-        final String attackSpeedName = SharedMonsterAttributes.ATTACK_SPEED.getName();
-
-        boolean hasDamage1 = itemStack1 != null ? multimap1.containsKey(attackDamageName) : false;
-        boolean hasDamage2 = itemStack2 != null ? multimap2.containsKey(attackDamageName) : false;
-        boolean hasSpeed1 = itemStack1 != null ? multimap1.containsKey(attackSpeedName) : false;
-        boolean hasSpeed2 = itemStack2 != null ? multimap2.containsKey(attackSpeedName) : false;
+    private int compareSword(@NotNull InvTweaksItemComparisonKey i, @NotNull InvTweaksItemComparisonKey j) {
+        boolean hasDamage1 = i.hasAttackDamage;
+        boolean hasDamage2 = j.hasAttackDamage;
 
         if(debugTree) { mostRecentComparison += ", HasDamage (" + hasDamage1 + ", " + hasDamage2 + ")"; }
 
         if(!hasDamage1 || !hasDamage2) {
             return Boolean.compare(hasDamage2, hasDamage1);
         } else {
-            Collection<AttributeModifier> damageMap1 = multimap1.get(attackDamageName);
-            Collection<AttributeModifier> damageMap2 = multimap2.get(attackDamageName);
-            Double attackDamage1 = ((AttributeModifier) damageMap1.toArray()[0]).getAmount();
-            Double attackDamage2 = ((AttributeModifier) damageMap2.toArray()[0]).getAmount();
-            // This funny comparison is because Double == Double never seems to work.
-            int damageComparison = Double.compare(attackDamage2, attackDamage1);
-            if(damageComparison == 0 && hasSpeed1 && hasSpeed2) {
+            int damageComparison = Double.compare(j.attackDamage, i.attackDamage);
+            if(damageComparison == 0 && i.hasAttackSpeed && j.hasAttackSpeed) {
                 // Same damage, sort faster weapon first.
-                Collection<AttributeModifier> speedMap1 = multimap1.get(attackSpeedName);
-                Collection<AttributeModifier> speedMap2 = multimap2.get(attackSpeedName);
-                Double speed1 = ((AttributeModifier) speedMap1.toArray()[0]).getAmount();
-                Double speed2 = ((AttributeModifier) speedMap2.toArray()[0]).getAmount();
-                int speedComparison = Double.compare(speed2, speed1);
+                int speedComparison = Double.compare(j.attackSpeed, i.attackSpeed);
                 if(speedComparison != 0) { return speedComparison; }
 
             } else if(damageComparison != 0) {
                 // Higher damage first.
                 return damageComparison;
             }
-            return compareMaxDamage(itemStack1, itemStack2);
+            return compareMaxDamage(i, j);
         }
     }
 
-    private int compareArmor(ItemStack i, ItemStack j, Item iItem, Item jItem) {
-        int isArmor1 = (iItem instanceof ItemArmor) ? 1 : 0;
-        int isArmor2 = (jItem instanceof ItemArmor) ? 1 : 0;
+    private int compareArmor(@NotNull InvTweaksItemComparisonKey i, @NotNull InvTweaksItemComparisonKey j) {
+        int isArmor1 = (i.armorType != null) ? 1 : 0;
+        int isArmor2 = (j.armorType != null) ? 1 : 0;
         if(isArmor1 == 0 || isArmor2 == 0) {
-            //This should catch any instances where one of the stacks is null.
             return isArmor2 - isArmor1;
         } else {
-            ItemArmor a1 = (ItemArmor) iItem;
-            ItemArmor a2 = (ItemArmor) jItem;
-            if(a1.armorType != a2.armorType) {
-                return a2.armorType.compareTo(a1.armorType);
-            } else if(a1.damageReduceAmount != a2.damageReduceAmount) {
-                return a2.damageReduceAmount - a1.damageReduceAmount;
-            } else if(a1.toughness != a2.toughness) {
-                return a2.toughness > a1.toughness ? -1 : 1;
+            if(i.armorType != j.armorType) {
+                return j.armorType.compareTo(i.armorType);
+            } else if(i.armorDamageReduction != j.armorDamageReduction) {
+                return j.armorDamageReduction - i.armorDamageReduction;
+            } else if(i.armorToughness != j.armorToughness) {
+                return j.armorToughness > i.armorToughness ? -1 : 1;
             }
             return compareMaxDamage(i, j);
         }
     }
 
-    private int compareEnchantment(ItemStack i, ItemStack j) {
-        @NotNull Map<Enchantment, Integer> iEnchs = EnchantmentHelper.getEnchantments(i);
-        @NotNull Map<Enchantment, Integer> jEnchs = EnchantmentHelper.getEnchantments(j);
-
+    private int compareEnchantment(@NotNull InvTweaksItemComparisonKey i, @NotNull InvTweaksItemComparisonKey j) {
         //Pick the item with the most enchantments first.
-        if(iEnchs.size() != jEnchs.size()) {
+        if(i.enchantmentCount != j.enchantmentCount) {
             if(debugTree) { mostRecentComparison += ", Enchantment Count"; }
-            return jEnchs.size() - iEnchs.size();
-        }
-
-        int iEnchMaxId = 0, iEnchMaxLvl = 0;
-        int jEnchMaxId = 0, jEnchMaxLvl = 0;
-
-        // TODO: This is really arbitrary but there's not really a good way to do this generically.
-        for(@NotNull Map.Entry<Enchantment, Integer> ench : iEnchs.entrySet()) {
-            int enchId = Enchantment.getEnchantmentID(ench.getKey());
-            if(ench.getValue() > iEnchMaxLvl) {
-                iEnchMaxId = enchId;
-                iEnchMaxLvl = ench.getValue();
-            } else if(ench.getValue() == iEnchMaxLvl && enchId > iEnchMaxId) {
-                iEnchMaxId = enchId;
-            }
-        }
-
-        for(@NotNull Map.Entry<Enchantment, Integer> ench : jEnchs.entrySet()) {
-            int enchId = Enchantment.getEnchantmentID(ench.getKey());
-            if(ench.getValue() > jEnchMaxLvl) {
-                jEnchMaxId = enchId;
-                jEnchMaxLvl = ench.getValue();
-            } else if(ench.getValue() == jEnchMaxLvl && enchId > jEnchMaxId) {
-                jEnchMaxId = enchId;
-            }
+            return j.enchantmentCount - i.enchantmentCount;
         }
 
         //The highest enchantment ID, (random actual enchantment.)
-        if(iEnchMaxId != jEnchMaxId) {
+        if(i.topEnchantmentId != j.topEnchantmentId) {
             if(debugTree) { mostRecentComparison += ", Highest Enchantment"; }
-            return jEnchMaxId - iEnchMaxId;
+            return j.topEnchantmentId - i.topEnchantmentId;
         }
 
         //Highest level if they both have the same coolest enchantment.
-        if(iEnchMaxLvl != jEnchMaxLvl) {
+        if(i.topEnchantmentLevel != j.topEnchantmentLevel) {
             if(debugTree) { mostRecentComparison += ", Highest Enchantment Level"; }
-            return jEnchMaxLvl - iEnchMaxLvl;
+            return j.topEnchantmentLevel - i.topEnchantmentLevel;
         }
 
         //Enchantments aren't different.
@@ -701,6 +733,11 @@ public class InvTweaks extends InvTweaksObfuscation {
     }
 
     public void logInGame(@NotNull String message, boolean alreadyTranslated) {
+        if(!mc.isCallingFromMinecraftThread()) {
+            // The configuration may be loaded in the background
+            addScheduledTask(() -> logInGame(message, alreadyTranslated));
+            return;
+        }
         @NotNull String formattedMsg = buildLogString(Level.INFO, (alreadyTranslated) ? message : I18n.format(message));
 
         if(mc.ingameGUI == null) {
@@ -713,6 +750,10 @@ public class InvTweaks extends InvTweaksObfuscation {
     }
 
     public void logInGameError(@NotNull String message, @NotNull Exception e) {
+        if(!mc.isCallingFromMinecraftThread()) {
+            addScheduledTask(() -> logInGameError(message, e));
+            return;
+        }
         @NotNull String formattedMsg = buildLogString(Level.SEVERE, I18n.format(message), e);
         log.error(formattedMsg, e);
 
@@ -734,7 +775,16 @@ public class InvTweaks extends InvTweaksObfuscation {
 
         // Not calling "cfgManager.makeSureConfigurationIsLoaded()" for performance reasons
         @Nullable InvTweaksConfig config = cfgManager.getConfig();
-        if(config == null) {
+        if(config == null || cfgManager.isLoading()) {
+            // Sort once the configuration is ready rather than ignoring the key
+            if(isSortingShortcutDown()) {
+                if(!sortKeyDown) {
+                    sortKeyDown = true;
+                    cfgManager.getReadiness().thenRun(() -> addScheduledTask(this::onSortingKeyPressed));
+                }
+            } else {
+                sortKeyDown = false;
+            }
             return false;
         }
 
@@ -1173,14 +1223,14 @@ public class InvTweaks extends InvTweaksObfuscation {
     }
 
     private int getItemOrder(@NotNull ItemStack itemStack) {
-        // TODO: It looks like Mojang changed the internal name type to ResourceLocation. Evaluate how much of a pain that will be.
-        List<IItemTreeItem> items = cfgManager.getConfig().getTree().getItems(itemStack.getItem().getRegistryName().toString(), itemStack.getItemDamage(), itemStack.getTagCompound());
-        return (items.size() > 0) ? items.get(0).getOrder() : Integer.MAX_VALUE;
+        @Nullable InvTweaksConfig config = cfgManager.getConfig();
+        return (config != null) ? config.getTree().getItemOrder(itemStack) : Integer.MAX_VALUE;
     }
 
     private boolean isSortingShortcutDown() {
-        if(sortKeyEnabled && !textboxMode) {
-            int keyCode = cfgManager.getConfig().getSortKeyCode();
+        @Nullable InvTweaksConfig config = cfgManager.getConfig();
+        if(sortKeyEnabled && !textboxMode && config != null) {
+            int keyCode = config.getSortKeyCode();
             if(keyCode > 0) {
                 return Keyboard.isKeyDown(keyCode);
             } else {
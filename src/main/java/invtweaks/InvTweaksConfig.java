@@ -5,10 +5,12 @@ import invtweaks.forge.ClientProxy;
 import net.minecraftforge.common.MinecraftForge;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.w3c.dom.Document;
 
 import java.io.*;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -46,6 +48,7 @@ public class InvTweaksConfig {
     public static final String PROP_ENABLE_SERVER_ITEMSWAP = "enableServerItemSwap";
     public static final String PROP_ENABLE_CONFIG_LOADED_MESSAGE = "enableConfigLoadedMesssage";
     public static final String PROP_ENABLE_CONTAINER_MIRRORING = "enableContainerMirroring";
+    public static final String PROP_EXPORT_MERGED_TREE = "exportMergedTree";
     public static final String VALUE_TRUE = "true";
     public static final String VALUE_FALSE = "false";
     public static final String LOCKED = "locked";
@@ -57,12 +60,27 @@ public class InvTweaksConfig {
     private final File treeFile;
 
     private InvTweaksConfigProperties properties;
-    private InvTweaksItemTree tree;
-    private List<InvTweaksConfigInventoryRuleset> rulesets;
-    private int currentRuleset = 0;
+    /**
+     * Replaced at once on reload, so that readers on other threads see either tree
+     */
+    private volatile InvTweaksItemTree tree;
+    /**
+     * Key of the tree snapshot to load from or save to, if any.
+     */
+    @Nullable
+    private byte[] treeSnapshotKey = null;
+    /**
+     * Whether to load the tree merged from the trees folder rather than the tree file.
+     */
+    private boolean mergeTrees = false;
+    /**
+     * Replaced at once when the rules are loaded or another ruleset is selected, so that readers on other threads see
+     * either rules
+     */
+    @NotNull
+    private volatile Rules rules = Rules.EMPTY;
     @Nullable
-    private String currentRulesetName = null;
-    private List<String> invalidKeywords;
+    private volatile String currentRulesetName = null;
 
     private long storedConfigLastModified;
 
@@ -111,86 +129,114 @@ public class InvTweaksConfig {
                 MinecraftForge.EVENT_BUS.unregister(tree);
             }
             // Load tree
-            tree = InvTweaksItemTreeLoader.load(treeFile);
-
-            // Read file
-            @NotNull char[] bytes = new char[(int) rulesFile.length()];
-            @Nullable FileReader reader = null;
-            try {
-                reader = new FileReader(rulesFile);
-                reader.read(bytes);
-            } finally {
-                if(reader != null) {
-                    reader.close();
+            boolean exportMergedTree = getProperty(PROP_EXPORT_MERGED_TREE).equals(VALUE_TRUE);
+            @NotNull InvTweaksItemTreeStats stats = new InvTweaksItemTreeStats();
+            tree = InvTweaksItemTreeLoader.load(treeFile, treeSnapshotKey, mergeTrees ? () -> {
+                @Nullable Document mergedTree = stats.time(InvTweaksItemTreeStats.Phase.MERGE, InvTweaksItemTreeBuilder::buildMergedTree);
+                if(mergedTree != null && exportMergedTree) {
+                    stats.time(InvTweaksItemTreeStats.Phase.EXPORT, () -> {
+                        InvTweaksItemTreeBuilder.exportMergedTree(mergedTree);
+                        return null;
+                    });
                 }
+                return mergedTree;
+            } : null, stats);
+
+            loadRules();
+        }
+
+    }
+
+    /**
+     * Reloads the rules only, keeping the current tree and properties.
+     */
+    public void reloadRules() throws IOException {
+        synchronized(this) {
+            loadRules();
+        }
+    }
+
+    private void loadRules() throws IOException {
+        // Read file
+        @NotNull char[] bytes = new char[(int) rulesFile.length()];
+        @Nullable FileReader reader = null;
+        try {
+            reader = new FileReader(rulesFile);
+            reader.read(bytes);
+        } finally {
+            if(reader != null) {
+                reader.close();
             }
+        }
 
-            // Split lines into an array
-            @NotNull String[] configLines = String.valueOf(bytes).replace("\r\n", "\n").replace('\r', '\n').split("\n");
-
-            // Register rules in various configurations (rulesets)
-            @NotNull InvTweaksConfigInventoryRuleset activeRuleset = new InvTweaksConfigInventoryRuleset(tree, "Default");
-            boolean defaultRuleset = true, defaultRulesetEmpty = true;
-            String invalidKeyword;
-
-            for(@NotNull String line : configLines) {
-                @NotNull String trimmedLine = line.trim();
-                if(!trimmedLine.isEmpty()) {
-                    // Change ruleset
-                    if(trimmedLine.matches("^[\\w]*[\\s]*:$")) {
-                        // Make sure not to add an empty default config to the rulesets
-                        if(!defaultRuleset || !defaultRulesetEmpty) {
-                            activeRuleset.finalizeRules();
-                            rulesets.add(activeRuleset);
-                        }
-                        activeRuleset = new InvTweaksConfigInventoryRuleset(tree, trimmedLine.substring(0, trimmedLine.length() - 1));
-                        defaultRuleset = false;
+        // Split lines into an array
+        @NotNull String[] configLines = String.valueOf(bytes).replace("\r\n", "\n").replace('\r', '\n').split("\n");
+
+        // Register rules in various configurations (rulesets)
+        @NotNull List<InvTweaksConfigInventoryRuleset> rulesets = new ArrayList<>();
+        @NotNull List<String> invalidKeywords = new ArrayList<>();
+        @NotNull InvTweaksConfigInventoryRuleset activeRuleset = new InvTweaksConfigInventoryRuleset(tree, "Default");
+        boolean defaultRuleset = true, defaultRulesetEmpty = true;
+        String invalidKeyword;
+
+        for(@NotNull String line : configLines) {
+            @NotNull String trimmedLine = line.trim();
+            if(!trimmedLine.isEmpty()) {
+                // Change ruleset
+                if(trimmedLine.matches("^[\\w]*[\\s]*:$")) {
+                    // Make sure not to add an empty default config to the rulesets
+                    if(!defaultRuleset || !defaultRulesetEmpty) {
+                        activeRuleset.finalizeRules();
+                        rulesets.add(activeRuleset);
                     }
+                    activeRuleset = new InvTweaksConfigInventoryRuleset(tree, trimmedLine.substring(0, trimmedLine.length() - 1));
+                    defaultRuleset = false;
+                }
 
-                    // Register line
-                    else {
-                        try {
-                            invalidKeyword = activeRuleset.registerLine(trimmedLine);
-                            if(defaultRuleset) {
-                                defaultRulesetEmpty = false;
-                            }
-                            if(invalidKeyword != null) {
-                                invalidKeywords.add(invalidKeyword);
-                            }
-                        } catch(InvalidParameterException e) {
-                            // Invalid line (comments), no problem
+                // Register line
+                else {
+                    try {
+                        invalidKeyword = activeRuleset.registerLine(trimmedLine);
+                        if(defaultRuleset) {
+                            defaultRulesetEmpty = false;
+                        }
+                        if(invalidKeyword != null) {
+                            invalidKeywords.add(invalidKeyword);
                         }
+                    } catch(InvalidParameterException e) {
+                        // Invalid line (comments), no problem
                     }
                 }
             }
+        }
 
-            // Finalize
-            activeRuleset.finalizeRules();
-            rulesets.add(activeRuleset);
-
-            // If a specific ruleset was loaded,
-            // try to choose the same again, else load the first one
-            currentRuleset = 0;
-            if(currentRulesetName != null) {
-                int rulesetIndex = 0;
-                for(@NotNull InvTweaksConfigInventoryRuleset ruleset : rulesets) {
-                    if(ruleset.getName().equals(currentRulesetName)) {
-                        currentRuleset = rulesetIndex;
-                        break;
-                    }
-                    rulesetIndex++;
+        // Finalize
+        activeRuleset.finalizeRules();
+        rulesets.add(activeRuleset);
+
+        // If a specific ruleset was loaded,
+        // try to choose the same again, else load the first one
+        int currentRuleset = 0;
+        if(currentRulesetName != null) {
+            int rulesetIndex = 0;
+            for(@NotNull InvTweaksConfigInventoryRuleset ruleset : rulesets) {
+                if(ruleset.getName().equals(currentRulesetName)) {
+                    currentRuleset = rulesetIndex;
+                    break;
                 }
+                rulesetIndex++;
             }
-            if(currentRuleset == 0) {
-                if(!rulesets.isEmpty()) {
-                    currentRulesetName = rulesets.get(currentRuleset).getName();
-                } else {
-                    currentRulesetName = null;
-                }
+        }
+        if(currentRuleset == 0) {
+            if(!rulesets.isEmpty()) {
+                currentRulesetName = rulesets.get(currentRuleset).getName();
+            } else {
+                currentRulesetName = null;
             }
-
         }
 
+        // Published once complete
+        rules = new Rules(Collections.unmodifiableList(rulesets), Collections.unmodifiableList(invalidKeywords), currentRuleset);
     }
 
     public boolean refreshProperties() throws IOException {
@@ -256,6 +302,14 @@ public class InvTweaksConfig {
         saveProperties();
     }
 
+    public void setTreeSnapshotKey(@Nullable byte[] treeSnapshotKey_) {
+        treeSnapshotKey = treeSnapshotKey_;
+    }
+
+    public void setMergeTrees(boolean mergeTrees_) {
+        mergeTrees = mergeTrees_;
+    }
+
     public InvTweaksItemTree getTree() {
         return tree;
     }
@@ -265,15 +319,23 @@ public class InvTweaksConfig {
         return currentRulesetName;
     }
 
+    /**
+     * Selects a ruleset by name before loading, so that a reloaded configuration keeps the ruleset in use.
+     */
+    public void setCurrentRulesetName(@Nullable String currentRulesetName_) {
+        currentRulesetName = currentRulesetName_;
+    }
+
     /**
      * @param i from 0 to n-1, n being the number of available configurations.
      * @return null if the given ID is invalid or the config is already enabled
      */
     @Nullable
-    public String switchConfig(int i) {
-        if(!rulesets.isEmpty() && i < rulesets.size() && i != currentRuleset) {
-            currentRuleset = i;
-            currentRulesetName = rulesets.get(currentRuleset).getName();
+    public synchronized String switchConfig(int i) {
+        @NotNull Rules current = rules;
+        if(!current.rulesets.isEmpty() && i < current.rulesets.size() && i != current.currentRuleset) {
+            rules = new Rules(current.rulesets, current.invalidKeywords, i);
+            currentRulesetName = current.rulesets.get(i).getName();
             return currentRulesetName;
         } else {
             return null;
@@ -281,11 +343,12 @@ public class InvTweaksConfig {
     }
 
     @Nullable
-    public String switchConfig() {
-        if(currentRuleset == -1) {
+    public synchronized String switchConfig() {
+        @NotNull Rules current = rules;
+        if(current.currentRuleset == -1) {
             return switchConfig(0);
         } else {
-            return switchConfig((currentRuleset + 1) % rulesets.size());
+            return switchConfig((current.currentRuleset + 1) % current.rulesets.size());
         }
     }
 
@@ -293,34 +356,34 @@ public class InvTweaksConfig {
      * @return all sorting rules, themselves sorted by decreasing priority
      */
     public List<InvTweaksConfigSortingRule> getRules() {
-        return rulesets.get(currentRuleset).getRules();
+        return rules.getCurrentRuleset().getRules();
     }
 
     /**
      * Returns all invalid keywords wrote in the config file.
      */
     public List<String> getInvalidKeywords() {
-        return invalidKeywords;
+        return rules.invalidKeywords;
     }
 
     /**
      * @return The locked slots array with locked priorities. WARNING: Not a copy.
      */
     public int[] getLockPriorities() {
-        return rulesets.get(currentRuleset).getLockPriorities();
+        return rules.getCurrentRuleset().getLockPriorities();
     }
 
     /**
      * @return The inventory slots array indicating which ones are frozen. WARNING: Not a copy.
      */
     public boolean[] getFrozenSlots() {
-        return rulesets.get(currentRuleset).getFrozenSlots();
+        return rules.getCurrentRuleset().getFrozenSlots();
     }
 
     public boolean isAutoRefillEnabled(String itemID, int itemDamage) {
         if(!getProperty(PROP_ENABLE_AUTO_REFILL).equals(VALUE_FALSE)) {
             List<IItemTreeItem> items = tree.getItems(itemID, itemDamage);
-            List<String> autoReplaceRules = rulesets.get(currentRuleset).getAutoReplaceRules();
+            List<String> autoReplaceRules = rules.getCurrentRuleset().getAutoReplaceRules();
             boolean found = false;
             for(@NotNull String keyword : autoReplaceRules) {
                 if(keyword.equals(AUTOREFILL_NOTHING)) {
@@ -337,8 +400,7 @@ public class InvTweaksConfig {
     }
 
     private void reset() {
-        rulesets = new ArrayList<>();
-        currentRuleset = -1;
+        rules = Rules.EMPTY;
 
         // Default property values
         properties = new InvTweaksConfigProperties();
@@ -354,8 +416,7 @@ public class InvTweaksConfig {
         properties.put(PROP_ENABLE_AUTO_EQUIP_ARMOR, VALUE_FALSE);
         properties.put(PROP_ENABLE_SERVER_ITEMSWAP, VALUE_TRUE);
         properties.put(PROP_ENABLE_CONFIG_LOADED_MESSAGE, VALUE_FALSE);
-        // TODO: Reenable when it doesn't just break everything
-        //properties.put(PROP_ENABLE_CONTAINER_MIRRORING, VALUE_FALSE);
+        properties.put(PROP_ENABLE_CONTAINER_MIRRORING, VALUE_FALSE);
         properties.put(PROP_INVERT_TOOL_DAMAGE, VALUE_TRUE);
 
         properties.put(PROP_SHORTCUT_ALL_ITEMS, "LCONTROL+LSHIFT, RCONTROL+RSHIFT");
@@ -365,10 +426,9 @@ public class InvTweaksConfig {
         properties.put(PROP_SHORTCUT_DOWN, "DOWN");
         properties.put(PROP_SHORTCUT_DROP, "LALT, RALT");
         properties.put(PROP_TOOLTIP_PATH, VALUE_FALSE);
+        properties.put(PROP_EXPORT_MERGED_TREE, VALUE_FALSE);
 
         properties.put(PROP_VERSION, InvTweaksConst.MOD_VERSION.split(" ")[0]);
-
-        invalidKeywords = new ArrayList<>();
     }
 
     private void loadProperties() throws IOException {
@@ -395,4 +455,27 @@ public class InvTweaksConfig {
         return ClientProxy.KEYBINDING_SORT.getKeyCode();
     }
 
+    /**
+     * The rulesets read from the rules file, and the one in use. Never modified once published.
+     */
+    private static class Rules {
+        static final Rules EMPTY = new Rules(Collections.emptyList(), Collections.emptyList(), -1);
+
+        @NotNull
+        final List<InvTweaksConfigInventoryRuleset> rulesets;
+        @NotNull
+        final List<String> invalidKeywords;
+        final int currentRuleset;
+
+        Rules(@NotNull List<InvTweaksConfigInventoryRuleset> rulesets_, @NotNull List<String> invalidKeywords_, int currentRuleset_) {
+            rulesets = rulesets_;
+            invalidKeywords = invalidKeywords_;
+            currentRuleset = currentRuleset_;
+        }
+
+        InvTweaksConfigInventoryRuleset getCurrentRuleset() {
+            return rulesets.get(currentRuleset);
+        }
+    }
+
 }
\ No newline at end of file
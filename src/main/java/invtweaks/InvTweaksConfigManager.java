@@ -4,6 +4,7 @@ import invtweaks.integration.ItemListSorter;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.resources.I18n;
 import net.minecraft.util.ResourceLocation;
+import net.minecraftforge.common.MinecraftForge;
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
@@ -13,7 +14,10 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
 
 /**
  * Handles the (re)loading of the configuration, and all that is related to file extraction/moves.
@@ -28,10 +32,10 @@ public class InvTweaksConfigManager {
     private final Minecraft mc;
 
     /**
-     * The mod's configuration.
+     * The mod's configuration. Read from other threads, e.g. by the JEI comparators.
      */
     @Nullable
-    private InvTweaksConfig config = null;
+    private volatile InvTweaksConfig config = null;
     private long storedConfigLastModified = 0;
 
     @Nullable
@@ -39,6 +43,23 @@ public class InvTweaksConfigManager {
     @Nullable
     private InvTweaksHandlerShortcuts shortcutsHandler = null;
 
+    /**
+     * The configuration load running in the background, if any.
+     */
+    @Nullable
+    private volatile CompletableFuture<Boolean> backgroundLoad = null;
+    /**
+     * Reports the modified configuration files, null if they can't be watched.
+     */
+    @Nullable
+    private InvTweaksConfigWatcher watcher = null;
+    @NotNull
+    private final ExecutorService backgroundLoader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "InvTweaks config loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     public InvTweaksConfigManager(Minecraft mc_) {
         mc = mc_;
     }
@@ -58,6 +79,27 @@ public class InvTweaksConfigManager {
         return sum + InvTweaksConst.CONFIG_RULES_FILE.lastModified() + InvTweaksConst.CONFIG_TREE_FILE.lastModified();
     }
 
+    /**
+     * @return The files the item tree (and thus its snapshot) is built from
+     */
+    @NotNull
+    private static List<File> getTreeSourceFiles() {
+        @NotNull List<File> files = new ArrayList<>();
+        for(@NotNull File dir : new File[]{InvTweaksConst.INVTWEAKS_CONFIG_DIR, InvTweaksConst.INVTWEAKS_TREES_DIR}) {
+            File[] treeFiles = dir.listFiles();
+            if(treeFiles != null) {
+                for(@NotNull File tree : treeFiles) {
+                    if(tree.getName().endsWith(".tree")) {
+                        files.add(tree);
+                    }
+                }
+            }
+        }
+        files.add(InvTweaksConst.CONFIG_TREE_FILE);
+        files.add(InvTweaksConst.CONFIG_RULES_FILE);
+        return files;
+    }
+
     private static void backupFile(@NotNull File file) {
         @NotNull File newFile = new File(file.getParentFile(), file.getName() + ".bak");
         log.warn("Backing up file: %1$s to %2$s", file.getAbsolutePath(), newFile.getAbsolutePath());
@@ -79,12 +121,66 @@ public class InvTweaksConfigManager {
         }
     }
 
-    // TODO Only reload modified file(s)
+    /**
+     * Loads the configuration (if needed) on a background thread, so that the first action using it doesn't have to.
+     *
+     * @return Completes with the same result as {@link #makeSureConfigurationIsLoaded()}
+     */
+    @NotNull
+    public synchronized CompletableFuture<Boolean> loadInBackground() {
+        @Nullable CompletableFuture<Boolean> load = backgroundLoad;
+        if(load == null || load.isDone()) {
+            load = CompletableFuture.supplyAsync(this::loadIfModified, backgroundLoader);
+            backgroundLoad = load;
+        }
+        return load;
+    }
+
+    /**
+     * @return True while a background load is running, the configuration must not be used meanwhile.
+     */
+    public boolean isLoading() {
+        @Nullable CompletableFuture<Boolean> load = backgroundLoad;
+        return load != null && !load.isDone();
+    }
+
+    /**
+     * @return Completes once the configuration is loaded, with false if loading failed
+     */
+    @NotNull
+    public CompletableFuture<Boolean> getReadiness() {
+        @Nullable CompletableFuture<Boolean> load = backgroundLoad;
+        return (load != null) ? load.exceptionally(e -> false) : CompletableFuture.completedFuture(config != null);
+    }
+
+    /**
+     * Waits a little for a background load to complete, then loads the configuration if it is missing or was
+     * modified.
+     *
+     * @return False if the configuration can't be used (yet)
+     */
     public boolean makeSureConfigurationIsLoaded() {
+        @Nullable CompletableFuture<Boolean> load = backgroundLoad;
+        if(load != null && !load.isDone()) {
+            try {
+                load.get(InvTweaksConst.CONFIG_LOAD_WAIT, TimeUnit.MILLISECONDS);
+            } catch(TimeoutException | InterruptedException e) {
+                return false;
+            } catch(ExecutionException e) {
+                // Try again below
+            }
+        }
+        return loadIfModified();
+    }
+
+    private synchronized boolean loadIfModified() {
+        // Without a watcher, the files are polled instead
+        @Nullable Set<File> changes = (watcher != null) ? watcher.takeChanges() : null;
+        boolean allChanged = watcher == null || changes == null;
 
         // Load properties
         try {
-            if(config != null && config.refreshProperties()) {
+            if(config != null && (allChanged || changes.contains(InvTweaksConst.CONFIG_PROPS_FILE)) && config.refreshProperties()) {
                 shortcutsHandler = new InvTweaksHandlerShortcuts(mc, config);
 
                 if(config.getProperty(InvTweaksConfig.PROP_ENABLE_CONFIG_LOADED_MESSAGE).equals(InvTweaksConfig.VALUE_TRUE)) {
@@ -96,14 +192,42 @@ public class InvTweaksConfigManager {
         }
 
         // Load rules + tree files
-        long configLastModified = computeConfigLastModified();
-        if(config != null) {
-            // Check time of last edit for both configuration files.
-            return storedConfigLastModified == configLastModified || loadConfig();
-        } else {
-            storedConfigLastModified = configLastModified;
+        if(config == null) {
             return loadConfig();
+        } else if(watcher == null) {
+            // Check time of last edit for both configuration files.
+            return storedConfigLastModified == computeConfigLastModified() || loadConfig();
+        } else if(changes != null) {
+            changes.removeIf(file -> !isConfigFile(file));
+            if(changes.isEmpty()) {
+                return true;
+            } else if(changes.size() == 1 && changes.contains(InvTweaksConst.CONFIG_RULES_FILE)) {
+                // The tree doesn't depend on the rules
+                return reloadRules() || loadConfig();
+            }
         }
+        // Tree files changed: the whole configuration is loaded again, as any partial tree can shift the order of the
+        // entries after it. Only the parsing of the unmodified tree files is skipped, the builder caches their documents.
+        return loadConfig();
+    }
+
+    private static boolean isConfigFile(@NotNull File file) {
+        return file.getName().endsWith(".tree") || file.equals(InvTweaksConst.CONFIG_TREE_FILE) || file.equals(InvTweaksConst.CONFIG_RULES_FILE);
+    }
+
+    private boolean reloadRules() {
+        try {
+            config.reloadRules();
+        } catch(IOException e) {
+            log.error("Failed to reload rules: " + e.getMessage());
+            return false;
+        }
+
+        if(config.getProperty(InvTweaksConfig.PROP_ENABLE_CONFIG_LOADED_MESSAGE).equals(InvTweaksConfig.VALUE_TRUE)) {
+            InvTweaks.logInGameStatic("invtweaks.loadconfig.done");
+        }
+        showConfigErrors(config);
+        return true;
     }
 
     @Nullable
@@ -123,7 +247,7 @@ public class InvTweaksConfigManager {
 
     /**
      * Tries to load mod configuration from file, with error handling. If it fails, the config attribute will remain
-     * null.
+     * null. The configuration is replaced once the new one is loaded, readers never see it partially loaded.
      */
     private boolean loadConfig() {
 
@@ -144,6 +268,13 @@ public class InvTweaksConfigManager {
             }
         }
 
+        if(watcher == null) {
+            watcher = InvTweaksConfigWatcher.start(InvTweaksConst.INVTWEAKS_CONFIG_DIR, InvTweaksConst.INVTWEAKS_TREES_DIR);
+        } else {
+            // Everything is loaded again below
+            watcher.takeChanges();
+        }
+
         // Compatibility: Tree version check
         try {
             if(!(InvTweaksItemTreeLoader.isValidVersion(InvTweaksConst.CONFIG_TREE_FILE))) {
@@ -175,9 +306,11 @@ public class InvTweaksConfigManager {
             InvTweaks.logInGameStatic(InvTweaksConst.CONFIG_TREE_FILE + " " + I18n.format("invtweaks.loadconfig.filemissing"));
         }
 
-        boolean treeBuilt = false;
-        if(InvTweaksConst.INVTWEAKS_TREES_DIR.exists()) {
-            treeBuilt = InvTweaksItemTreeBuilder.buildNewTree();
+        @Nullable byte[] treeSnapshotKey = null;
+        try {
+            treeSnapshotKey = InvTweaksItemTreeSnapshot.computeKey(getTreeSourceFiles());
+        } catch(IOException e) {
+            log.warn("Failed to compute item tree snapshot key: " + e.getMessage());
         }
 
         storedConfigLastModified = computeConfigLastModified();
@@ -189,28 +322,22 @@ public class InvTweaksConfigManager {
 
         try {
 
-            // Configuration creation
-            if(config == null) {
-                if(treeBuilt & InvTweaksConst.MERGED_TREE_FILE.exists()) {
-                    config = new InvTweaksConfig(InvTweaksConst.CONFIG_RULES_FILE, InvTweaksConst.MERGED_TREE_FILE);
-                } else if(treeBuilt & InvTweaksConst.MERGED_TREE_FILE_ALT.exists()) {
-                    config = new InvTweaksConfig(InvTweaksConst.CONFIG_RULES_FILE, InvTweaksConst.MERGED_TREE_FILE_ALT);
-                } else {
-                    config = new InvTweaksConfig(InvTweaksConst.CONFIG_RULES_FILE, InvTweaksConst.CONFIG_TREE_FILE);
-                }
-                autoRefillHandler = new InvTweaksHandlerAutoRefill(mc, config);
-                shortcutsHandler = new InvTweaksHandlerShortcuts(mc, config);
+            // Built apart and published once loaded, as the current configuration is read meanwhile
+            // With a trees folder, the trees are merged when loading, and the tree file is used if that fails
+            @NotNull InvTweaksConfig newConfig = new InvTweaksConfig(InvTweaksConst.CONFIG_RULES_FILE, InvTweaksConst.CONFIG_TREE_FILE);
+            newConfig.setMergeTrees(InvTweaksConst.INVTWEAKS_TREES_DIR.exists());
+            newConfig.setTreeSnapshotKey(treeSnapshotKey);
+            if(config != null) {
+                newConfig.setCurrentRulesetName(config.getCurrentRulesetName());
             }
+            newConfig.load();
+            publishConfig(newConfig);
 
-            // Configuration loading
-            config.load();
-            shortcutsHandler.loadShortcuts();
-
-            if(config.getProperty(InvTweaksConfig.PROP_ENABLE_CONFIG_LOADED_MESSAGE).equals(InvTweaksConfig.VALUE_TRUE)) {
+            if(newConfig.getProperty(InvTweaksConfig.PROP_ENABLE_CONFIG_LOADED_MESSAGE).equals(InvTweaksConfig.VALUE_TRUE)) {
                 InvTweaks.logInGameStatic("invtweaks.loadconfig.done");
             }
-            showConfigErrors(config);
-            ItemListSorter.ReloadItemList();
+            showConfigErrors(newConfig);
+            mc.addScheduledTask(ItemListSorter::ReloadItemList);
 
         } catch(FileNotFoundException e) {
             error = "Config file not found";
@@ -236,15 +363,15 @@ public class InvTweaksConfigManager {
                 extractFile(InvTweaksConst.DEFAULT_CONFIG_FILE, InvTweaksConst.CONFIG_RULES_FILE);
                 extractFile(InvTweaksConst.DEFAULT_CONFIG_TREE_FILE, InvTweaksConst.CONFIG_TREE_FILE);
 
-                config = new InvTweaksConfig(InvTweaksConst.CONFIG_RULES_FILE, InvTweaksConst.CONFIG_TREE_FILE);
-                autoRefillHandler = new InvTweaksHandlerAutoRefill(mc, config);
-                shortcutsHandler = new InvTweaksHandlerShortcuts(mc, config);
-
-                config.load();
-                shortcutsHandler.loadShortcuts();
-                ItemListSorter.ReloadItemList();
+                @NotNull InvTweaksConfig newConfig = new InvTweaksConfig(InvTweaksConst.CONFIG_RULES_FILE, InvTweaksConst.CONFIG_TREE_FILE);
+                newConfig.load();
+                publishConfig(newConfig);
+                mc.addScheduledTask(ItemListSorter::ReloadItemList);
             } catch(Exception e) {
                 // But if this fails too there's not much point in trying again
+                if(config != null) {
+                    MinecraftForge.EVENT_BUS.unregister(config.getTree());
+                }
                 config = null;
                 autoRefillHandler = null;
                 shortcutsHandler = null;
@@ -262,6 +389,24 @@ public class InvTweaksConfigManager {
         }
     }
 
+    /**
+     * Replaces the configuration and its handlers with a loaded one. The tree of the previous configuration stops
+     * receiving ore registrations.
+     */
+    private void publishConfig(@NotNull InvTweaksConfig newConfig) {
+        @NotNull InvTweaksHandlerShortcuts newShortcutsHandler = new InvTweaksHandlerShortcuts(mc, newConfig);
+        newShortcutsHandler.loadShortcuts();
+
+        @Nullable InvTweaksConfig previousConfig = config;
+        autoRefillHandler = new InvTweaksHandlerAutoRefill(mc, newConfig);
+        shortcutsHandler = newShortcutsHandler;
+        config = newConfig;
+
+        if(previousConfig != null && previousConfig.getTree() != null && previousConfig.getTree() != newConfig.getTree()) {
+            MinecraftForge.EVENT_BUS.unregister(previousConfig.getTree());
+        }
+    }
+
     private boolean extractFile(@NotNull ResourceLocation resource, @NotNull File destination) {
         try(@NotNull InputStream input = mc.getResourceManager().getResource(resource).getInputStream()) {
             try {
@@ -0,0 +1,145 @@
+package invtweaks;
+
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Watches the configuration folders, so that the files don't have to be checked each time the configuration is used.
+ * A single watcher runs at a time: starting one stops the previous one, and the running one is stopped on shutdown.
+ */
+public class InvTweaksConfigWatcher {
+
+    private static final Logger log = InvTweaks.log;
+    @Nullable
+    private static InvTweaksConfigWatcher running = null;
+    private static boolean shutdownHookAdded = false;
+
+    @NotNull
+    private final WatchService watchService;
+    @NotNull
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+    /**
+     * Files modified since the last call to {@link #takeChanges()}, guarded by itself
+     */
+    @NotNull
+    private final Set<File> changes = new HashSet<>();
+    /**
+     * Set if events were lost, in which case any file may have changed
+     */
+    private boolean overflowed = false;
+
+    private InvTweaksConfigWatcher(@NotNull WatchService watchService_) {
+        watchService = watchService_;
+    }
+
+    /**
+     * Stops the running watcher, if any, and starts a new one.
+     *
+     * @return A watcher running on its own thread, or null if the folders can't be watched
+     */
+    @Nullable
+    public static synchronized InvTweaksConfigWatcher start(@NotNull File... dirs) {
+        stop();
+        if(!shutdownHookAdded) {
+            Runtime.getRuntime().addShutdownHook(new Thread(InvTweaksConfigWatcher::stop, "InvTweaks config watcher shutdown"));
+            shutdownHookAdded = true;
+        }
+
+        @Nullable InvTweaksConfigWatcher watcher = null;
+        try {
+            watcher = new InvTweaksConfigWatcher(FileSystems.getDefault().newWatchService());
+            for(@NotNull File dir : dirs) {
+                Path path = dir.toPath();
+                WatchKey key = path.register(watcher.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                watcher.watchedDirs.put(key, path);
+            }
+
+            Thread thread = new Thread(watcher::run, "InvTweaks config watcher");
+            thread.setDaemon(true);
+            thread.start();
+            running = watcher;
+            return watcher;
+        } catch(IOException | UnsupportedOperationException e) {
+            log.warn("Unable to watch the configuration files, falling back to polling: " + e.getMessage());
+            if(watcher != null) {
+                watcher.close();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Stops the running watcher, if any.
+     */
+    public static synchronized void stop() {
+        if(running != null) {
+            running.close();
+            running = null;
+        }
+    }
+
+    /**
+     * Closes the watch service, which ends the thread of the watcher.
+     */
+    private void close() {
+        try {
+            watchService.close();
+        } catch(IOException e) {
+            log.warn("Failed to stop watching the configuration files: " + e.getMessage());
+        }
+    }
+
+    private void run() {
+        try {
+            while(true) {
+                WatchKey key = watchService.take();
+                Path dir = watchedDirs.get(key);
+                for(WatchEvent<?> event : key.pollEvents()) {
+                    synchronized(changes) {
+                        if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflowed = true;
+                        } else if(dir != null) {
+                            changes.add(dir.resolve((Path) event.context()).toFile());
+                        }
+                    }
+                }
+                if(!key.reset()) {
+                    // The folder is gone, anything may have changed
+                    synchronized(changes) {
+                        overflowed = true;
+                    }
+                }
+            }
+        } catch(InterruptedException | ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+
+    /**
+     * @return The files modified since the last call, or null if this is unknown (all files must then be considered
+     * modified)
+     */
+    @Nullable
+    public Set<File> takeChanges() {
+        synchronized(changes) {
+            if(overflowed) {
+                overflowed = false;
+                changes.clear();
+                return null;
+            }
+            @NotNull Set<File> result = new HashSet<>(changes);
+            changes.clear();
+            return result;
+        }
+    }
+
+}
@@ -29,6 +29,11 @@ public class InvTweaksConst {
     public static final int POLLING_DELAY = 3;
     public static final int CHEST_ALGORITHM_SWAP_MAX_INTERVAL = 2000;
     public static final int TOOLTIP_DELAY = 800;
+    public static final int CONFIG_LOAD_WAIT = 50;
+
+    // Item tree constants
+    public static final int MAX_UNCATEGORIZED_ITEMS = 4096;
+    public static final int MAX_TREE_PARSER_THREADS = 4;
 
     // File constants
     public static final File MINECRAFT_DIR = Minecraft.getMinecraft().gameDir;
@@ -45,6 +50,8 @@ public class InvTweaksConst {
     public static final File TEMP_DIR = new File(System.getProperty("java.io.tmpdir"));
     public static final File MERGED_TREE_FILE = new File(TEMP_DIR, "InvTweaksTree.txt");
     public static final File MERGED_TREE_FILE_ALT = new File(INVTWEAKS_TREES_DIR, "InvTweaksTree.txt");
+    public static final File TREE_SNAPSHOT_FILE = new File(INVTWEAKS_CONFIG_DIR, "InvTweaksTree.cache");
+    public static final File DIAGNOSTICS_FILE = new File(INVTWEAKS_CONFIG_DIR, "InvTweaksDiagnostics.txt");
 
     public static final String INVTWEAKS_RESOURCE_DOMAIN = "inventorytweaks";
     public static final ResourceLocation DEFAULT_CONFIG_FILE = new ResourceLocation(INVTWEAKS_RESOURCE_DOMAIN, "defaultconfig.dat");
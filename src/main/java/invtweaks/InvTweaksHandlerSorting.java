@@ -5,6 +5,8 @@ import invtweaks.api.SortingMethod;
 import invtweaks.api.container.ContainerSection;
 import invtweaks.container.ContainerSectionManager;
 import invtweaks.container.IContainerManager;
+import invtweaks.container.MirroredContainerManager;
+import invtweaks.container.VirtualSectionManager;
 import net.minecraft.client.Minecraft;
 import net.minecraft.inventory.Slot;
 import net.minecraft.item.Item;
@@ -22,6 +24,9 @@ import java.util.Map.Entry;
 /**
  * Core of the sorting behaviour. Allows to move items in a container (inventory or chest) with respect to the mod's
  * configuration.
+ * <p>
+ * The section is sorted in two phases: the rules, locks, merges and default ordering are first worked out on an
+ * in-memory copy of the section, then the resulting layout is applied to the container in one pass.
  *
  * @author Jimeo Wan
  */
@@ -32,7 +37,20 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
     private static int[] DEFAULT_LOCK_PRIORITIES = null;
     @Nullable
     private static boolean[] DEFAULT_FROZEN_SLOTS = null;
+    /**
+     * Manager of the whole container, shared with the section so that a mirrored container stays consistent
+     */
+    private IContainerManager globalContainer;
     private ContainerSectionManager containerMgr;
+    /**
+     * Real container and section, on which the planned layout is clicked even when the planning reads a mirror
+     */
+    private IContainerManager liveContainer;
+    private ContainerSectionManager liveContainerMgr;
+    /**
+     * Copy of the section on which the sorting is planned
+     */
+    private VirtualSectionManager model;
     private SortingMethod algorithm;
     private int size;
     private boolean sortArmorParts;
@@ -45,6 +63,12 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
     private int[] lockPriorities;
     @Nullable
     private boolean[] frozenSlots;
+    /**
+     * Rules matching each planned stack, as bitsets over rule indices. Stacks keep their instance when moved on the
+     * model, so their matches follow them without being computed again.
+     */
+    @NotNull
+    private final Map<ItemStack, BitSet> ruleMatches = new IdentityHashMap<>();
 
     public InvTweaksHandlerSorting(Minecraft mc_, @NotNull InvTweaksConfig config, ContainerSection section, SortingMethod algorithm_, int rowSize) throws Exception {
         super(mc_);
@@ -66,8 +90,17 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
 
         // Init attributes
 
-        containerMgr = new ContainerSectionManager(section);
-        size = containerMgr.getSize();
+        globalContainer = InvTweaks.getCurrentMirroredContainerManager();
+        containerMgr = new ContainerSectionManager(globalContainer, section);
+        if(globalContainer instanceof MirroredContainerManager) {
+            liveContainer = InvTweaks.getContainerManager(globalContainer.getContainer());
+            liveContainerMgr = new ContainerSectionManager(liveContainer, section);
+        } else {
+            liveContainer = globalContainer;
+            liveContainerMgr = containerMgr;
+        }
+        model = new VirtualSectionManager(containerMgr);
+        size = model.getSize();
         sortArmorParts = config.getProperty(InvTweaksConfig.PROP_ENABLE_AUTO_EQUIP_ARMOR).equals(InvTweaksConfig.VALUE_TRUE) && !isGuiInventoryCreative(getCurrentScreen()); // FIXME Armor parts disappear when sorting in creative mode while holding an item
 
         rules = config.getRules();
@@ -87,9 +120,18 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
 
         rulePriority = new int[size];
         keywordOrder = new int[size];
+        computeSlotOrders();
+    }
+
+    /**
+     * Computes the keyword order and the matching rule priority of each slot from the current model.
+     */
+    private void computeSlotOrders() {
+        // A reload replaces the planned stacks, so the matches of the previous ones can't be reached anymore
+        ruleMatches.clear();
         for(int i = 0; i < size; i++) {
             rulePriority[i] = -1;
-            @NotNull ItemStack stack = containerMgr.getItemStack(i);
+            @NotNull ItemStack stack = model.getItemStack(i);
             if(!stack.isEmpty()) {
                 keywordOrder[i] = getItemOrder(stack);
             } else {
@@ -98,19 +140,19 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
         }
 
         // Initialize rule priority for currently matching items
-        // TODO: J1.8 streams?
-        rules.stream().filter(rule -> (rule.getContainerSize() == size && rule.getPreferredSlots() != null)).forEach(rule -> {
+        for(int ruleIndex = 0; ruleIndex < rules.size(); ruleIndex++) {
+            @NotNull InvTweaksConfigSortingRule rule = rules.get(ruleIndex);
+            if(rule.getContainerSize() != size || rule.getPreferredSlots() == null) {
+                continue;
+            }
             int priority = rule.getPriority();
             for(int slot : rule.getPreferredSlots()) {
-                @NotNull ItemStack stack = containerMgr.getItemStack(slot);
-                if(!stack.isEmpty()) {
-                    @NotNull List<IItemTreeItem> items = tree.getItems(stack.getItem().getRegistryName().toString(), stack.getItemDamage(), stack.getTagCompound());
-                    if(rulePriority[slot] < priority && tree.matches(items, rule.getKeyword())) {
-                        rulePriority[slot] = priority;
-                    }
+                @NotNull ItemStack stack = model.getItemStack(slot);
+                if(!stack.isEmpty() && rulePriority[slot] < priority && matchesRule(stack, ruleIndex)) {
+                    rulePriority[slot] = priority;
                 }
             }
-        });
+        }
     }
 
     private static boolean canMergeStacks(@NotNull ItemStack from, @NotNull ItemStack to) {
@@ -130,10 +172,9 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
 
     public void sort() {
         long timer = System.nanoTime();
-        @NotNull IContainerManager globalContainer = InvTweaks.getCurrentContainerManager();
 
         // Put hold item down
-        if(!getHeldStack().isEmpty()) {
+        if(!globalContainer.getHeldStack().isEmpty()) {
             int emptySlot = globalContainer.getFirstEmptyIndex(ContainerSection.INVENTORY);
             if(emptySlot != -1) {
                 globalContainer.putHoldItemDown(ContainerSection.INVENTORY, emptySlot);
@@ -141,33 +182,75 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
                 return; // Not enough room to work, abort
             }
         }
-
-        if(algorithm != SortingMethod.DEFAULT) {
-            if(algorithm == SortingMethod.EVEN_STACKS) {
-                sortEvenStacks();
-            } else if(algorithm == SortingMethod.INVENTORY) {
-                sortInventory(globalContainer);
+        planLayout(true);
+
+        //// Apply the planned layout
+        // A mirror only holds the changes made before planning: the layout is clicked on the real container, in cycles
+        // of clicks, rather than through the mirror.
+        if(globalContainer instanceof MirroredContainerManager) {
+            @NotNull MirroredContainerManager mirror = (MirroredContainerManager) globalContainer;
+            mirror.flushChanges();
+            if(!mirror.isInSync()) {
+                // The layout was planned from a container that the real one doesn't match. The clicks already made stay,
+                // only the layout of the section is planned again, from the real container.
+                log.warn("Planning the layout again on the real container, as the mirrored changes couldn't be applied");
+                if(!liveContainer.getHeldStack().isEmpty()) {
+                    int emptySlot = liveContainer.getFirstEmptyIndex(ContainerSection.INVENTORY);
+                    if(emptySlot == -1 || !liveContainer.putHoldItemDown(ContainerSection.INVENTORY, emptySlot)) {
+                        liveContainer.applyChanges();
+                        return; // Not enough room to work, abort
+                    }
+                }
+                model = new VirtualSectionManager(liveContainerMgr);
+                planLayout(false);
             }
-            sortWithRules();
         }
-
-        //// Sort remaining
-        defaultSorting();
+        int moves = model.apply(liveContainerMgr);
 
         if(log.isEnabled(InvTweaksConst.DEBUG)) {
             timer = System.nanoTime() - timer;
-            log.info("Sorting done in " + timer + "ns");
+            log.info("Sorting done in " + timer + "ns, " + moves + " moves");
         }
 
         //// Put hold item down, just in case
-        if(!getHeldStack().isEmpty()) {
-            int emptySlot = globalContainer.getFirstEmptyIndex(ContainerSection.INVENTORY);
+        if(!liveContainer.getHeldStack().isEmpty()) {
+            int emptySlot = liveContainer.getFirstEmptyIndex(ContainerSection.INVENTORY);
             if(emptySlot != -1) {
-                globalContainer.putHoldItemDown(ContainerSection.INVENTORY, emptySlot);
+                liveContainer.putHoldItemDown(ContainerSection.INVENTORY, emptySlot);
             }
         }
 
-        globalContainer.applyChanges();
+        liveContainer.applyChanges();
+    }
+
+    /**
+     * Plans the sorting on the model, from the current contents of the section.
+     *
+     * @param containerMoves Whether to also make the moves out of the section first (crafting slots, armor)
+     */
+    private void planLayout(boolean containerMoves) {
+        model.reload();
+        computeSlotOrders();
+
+        // Stack tags are compared against the tree data of the same entries many times
+        try(@NotNull InvTweaksNBTFingerprint.Session ignored = InvTweaksNBTFingerprint.openSession();
+            @NotNull InvTweaksItemComparisonKey.Session ignoredKeys = InvTweaksItemComparisonKey.openSession()) {
+            if(algorithm != SortingMethod.DEFAULT) {
+                if(algorithm == SortingMethod.EVEN_STACKS) {
+                    sortEvenStacks();
+                } else if(algorithm == SortingMethod.INVENTORY) {
+                    if(containerMoves) {
+                        sortInventory(globalContainer);
+                    } else {
+                        sortMerge();
+                    }
+                }
+                sortWithRules();
+            }
+
+            //// Sort remaining
+            defaultSorting();
+        }
     }
 
     private void sortWithRules() {
@@ -175,7 +258,8 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
         log.info("Applying rules.");
 
         // Sorts rule by rule, themselves being already sorted by decreasing priority
-        for(@NotNull InvTweaksConfigSortingRule rule : rules) {
+        for(int ruleIndex = 0; ruleIndex < rules.size(); ruleIndex++) {
+            @NotNull InvTweaksConfigSortingRule rule = rules.get(ruleIndex);
             int priority = rule.getPriority();
 
             if(log.isEnabled(InvTweaksConst.DEBUG)) {
@@ -184,13 +268,11 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
 
             // For every item in the inventory
             for(int i = 0; i < size; i++) {
-                @NotNull ItemStack from = containerMgr.getItemStack(i);
+                @NotNull ItemStack from = model.getItemStack(i);
 
                 // If the rule is strong enough to move the item and it matches the item, move it
                 if(hasToBeMoved(i, priority) && lockPriorities[i] < priority) {
-                    // TODO: It looks like Mojang changed the internal name type to ResourceLocation. Evaluate how much of a pain that will be.
-                    @NotNull List<IItemTreeItem> fromItems = tree.getItems(from.getItem().getRegistryName().toString(), from.getItemDamage(), from.getTagCompound());
-                    if(tree.matches(fromItems, rule.getKeyword())) {
+                    if(matchesRule(from, ruleIndex)) {
 
                         // Test preferred slots
                         int[] preferredSlots = rule.getPreferredSlots();
@@ -202,10 +284,8 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
                                 if(moveResult == k) {
                                     break;
                                 } else {
-                                    from = containerMgr.getItemStack(moveResult);
-                                    // TODO: It looks like Mojang changed the internal name type to ResourceLocation. Evaluate how much of a pain that will be.
-                                    fromItems = tree.getItems(from.getItem().getRegistryName().toString(), from.getItemDamage(), from.getTagCompound());
-                                    if(tree.matches(fromItems, rule.getKeyword())) {
+                                    from = model.getItemStack(moveResult);
+                                    if(matchesRule(from, ruleIndex)) {
                                         if(i >= moveResult) {
                                             // Current or already-processed slot.
                                             stackToMove = moveResult;
@@ -239,12 +319,13 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
         //// Move items out of the crafting slots
         log.info("Handling crafting slots.");
         if(globalContainer.hasSection(ContainerSection.CRAFTING_IN)) {
-            List<Slot> craftingSlots = globalContainer.getSlots(ContainerSection.CRAFTING_IN);
+            // Stacks are read through the manager, as the slots don't see the changes made on a mirror
+            int craftingSize = globalContainer.getSize(ContainerSection.CRAFTING_IN);
             int emptyIndex = globalContainer.getFirstEmptyIndex(ContainerSection.INVENTORY);
             if(emptyIndex != -1) {
-                for(@NotNull Slot craftingSlot : craftingSlots) {
-                    if(craftingSlot.getHasStack()) {
-                        globalContainer.move(ContainerSection.CRAFTING_IN, globalContainer.getSlotIndex(getSlotNumber(craftingSlot)), ContainerSection.INVENTORY, emptyIndex);
+                for(int craftingIndex = 0; craftingIndex < craftingSize; craftingIndex++) {
+                    if(!globalContainer.getItemStack(ContainerSection.CRAFTING_IN, craftingIndex).isEmpty()) {
+                        globalContainer.move(ContainerSection.CRAFTING_IN, craftingIndex, ContainerSection.INVENTORY, emptyIndex);
                         emptyIndex = globalContainer.getFirstEmptyIndex(ContainerSection.INVENTORY);
                         if(emptyIndex == -1) {
                             break;
@@ -254,26 +335,29 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
             }
         }
 
-        sortMergeArmor(globalContainer);
+        //// Move armor parts to the armor slots
+        for(int i = size - 1; i >= 0; i--) {
+            @NotNull ItemStack from = containerMgr.getItemStack(i);
+            if(!from.isEmpty() && from.getItem().isDamageable()) {
+                moveArmor(globalContainer, i, from, from.getItem());
+            }
+        }
+
+        // These moves were made on the container directly, and outside of the section
+        model.reload();
+        computeSlotOrders();
+
+        sortMerge();
     }
 
-    private void sortMergeArmor(@NotNull IContainerManager globalContainer) {
+    private void sortMerge() {
         //// Merge stacks to fill the ones in locked slots
-        //// + Move armor parts to the armor slots
         log.info("Merging stacks.");
         for(int i = size - 1; i >= 0; i--) {
-            @NotNull ItemStack from = containerMgr.getItemStack(i);
-            if(!from.isEmpty()) {
-                // Move armor parts
-                // Item
-                @NotNull Item fromItem = from.getItem();
-                if(fromItem.isDamageable()) {
-                    moveArmor(globalContainer, i, from, fromItem);
-                }
-                // Stackable objects are never damageable
-                else {
-                    mergeItem(i, from);
-                }
+            @NotNull ItemStack from = model.getItemStack(i);
+            // Stackable objects are never damageable
+            if(!from.isEmpty() && !from.getItem().isDamageable()) {
+                mergeItem(i, from);
             }
         }
     }
@@ -282,11 +366,11 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
         int j = 0;
         for(Integer lockPriority : lockPriorities) {
             if(lockPriority > 0) {
-                @NotNull ItemStack to = containerMgr.getItemStack(j);
+                @NotNull ItemStack to = model.getItemStack(j);
                 if(!to.isEmpty() && areItemsStackable(from, to)) {
                     move(i, j, Integer.MAX_VALUE);
                     markAsNotMoved(j);
-                    if(containerMgr.getItemStack(i).isEmpty()) {
+                    if(model.getItemStack(i).isEmpty()) {
                         break;
                     }
                 }
@@ -302,20 +386,23 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
                 @NotNull ItemArmor fromItemArmor = (ItemArmor) fromItem;
                 if(globalContainer.hasSection(ContainerSection.ARMOR)) {
                     List<Slot> armorSlots = globalContainer.getSlots(ContainerSection.ARMOR);
-                    for(@NotNull Slot slot : armorSlots) {
+                    for(int armorIndex = 0; armorIndex < armorSlots.size(); armorIndex++) {
+                        @NotNull Slot slot = armorSlots.get(armorIndex);
+                        // The slot only tells which items it accepts: its stack is read through the manager
+                        @NotNull ItemStack current = globalContainer.getItemStack(ContainerSection.ARMOR, armorIndex);
                         boolean move = false;
-                        if(!slot.getHasStack()) {
+                        if(current.isEmpty()) {
                             move = true;
                         } else {
                             // Item
-                            @NotNull Item currentArmor = slot.getStack().getItem();
+                            @NotNull Item currentArmor = current.getItem();
                             if(isItemArmor(currentArmor)) {
                                 // ItemArmor
                                 // ItemArmor
                                 int armorLevel = ((ItemArmor) currentArmor).damageReduceAmount;
                                 // ItemArmor
                                 // ItemArmor
-                                if(armorLevel < fromItemArmor.damageReduceAmount || (armorLevel == fromItemArmor.damageReduceAmount && slot.getStack().getItemDamage() < from.getItemDamage())) {
+                                if(armorLevel < fromItemArmor.damageReduceAmount || (armorLevel == fromItemArmor.damageReduceAmount && current.getItemDamage() < from.getItemDamage())) {
                                     move = true;
                                 }
                             } else {
@@ -323,7 +410,7 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
                             }
                         }
                         if(slot.isItemValid(from) && move) {
-                            globalContainer.move(ContainerSection.INVENTORY, i, ContainerSection.ARMOR, globalContainer.getSlotIndex(getSlotNumber(slot)));
+                            globalContainer.move(ContainerSection.INVENTORY, i, ContainerSection.ARMOR, armorIndex);
                         }
                     }
                 }
@@ -337,7 +424,7 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
         //item and slot counts for each unique item
         @NotNull HashMap<Pair<String, Integer>, int[]> itemCounts = new HashMap<>();
         for(int i = 0; i < size; i++) {
-            @NotNull ItemStack stack = containerMgr.getItemStack(i);
+            @NotNull ItemStack stack = model.getItemStack(i);
             if(!stack.isEmpty()) {
                 // TODO: It looks like Mojang changed the internal name type to ResourceLocation. Evaluate how much of a pain that will be.
                 @NotNull Pair<String, Integer> item = Pair.of(stack.getItem().getRegistryName().toString(), stack.getItemDamage());
@@ -366,7 +453,7 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
                 @NotNull LinkedList<Integer> smallStacks = new LinkedList<>();
                 @NotNull LinkedList<Integer> largeStacks = new LinkedList<>();
                 for(int i = 0; i < size; i++) {
-                    @NotNull ItemStack stack = containerMgr.getItemStack(i);
+                    @NotNull ItemStack stack = model.getItemStack(i);
                     // TODO: ResourceLocation
                     if(!stack.isEmpty() && Pair.of(stack.getItem().getRegistryName().toString(), stack.getItemDamage()).equals(item)) {
                         int stackSize = stack.getCount();
@@ -381,14 +468,14 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
                 //move items from stacks with too many to those with too little
                 while((!smallStacks.isEmpty())) {
                     int largeIndex = largeStacks.peek();
-                    int largeSize = containerMgr.getItemStack(largeIndex).getCount();
+                    int largeSize = model.getItemStack(largeIndex).getCount();
                     int smallIndex = smallStacks.peek();
-                    int smallSize = containerMgr.getItemStack(smallIndex).getCount();
-                    containerMgr.moveSome(largeIndex, smallIndex, Math.min(numPerSlot - smallSize, largeSize - numPerSlot));
+                    int smallSize = model.getItemStack(smallIndex).getCount();
+                    model.moveSome(largeIndex, smallIndex, Math.min(numPerSlot - smallSize, largeSize - numPerSlot));
 
                     //update stack lists
-                    largeSize = containerMgr.getItemStack(largeIndex).getCount();
-                    smallSize = containerMgr.getItemStack(smallIndex).getCount();
+                    largeSize = model.getItemStack(largeIndex).getCount();
+                    smallSize = model.getItemStack(smallIndex).getCount();
                     if(largeSize == numPerSlot) {
                         largeStacks.remove();
                     }
@@ -400,8 +487,8 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
                 //put all leftover into one stack for easy removal
                 while(largeStacks.size() > 1) {
                     int largeIndex = largeStacks.poll();
-                    int largeSize = containerMgr.getItemStack(largeIndex).getCount();
-                    containerMgr.moveSome(largeIndex, largeStacks.peek(), largeSize - numPerSlot);
+                    int largeSize = model.getItemStack(largeIndex).getCount();
+                    model.moveSome(largeIndex, largeStacks.peek(), largeSize - numPerSlot);
                 }
             }
         }
@@ -412,38 +499,98 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
         }
     }
 
+    /**
+     * Places the stacks that no rule placed: merges them into the stacks of the same item that have room, sorts them
+     * once, then moves them in order to the slots that are free to use.
+     */
     private void defaultSorting() {
         log.info("Default sorting.");
 
-        @NotNull ArrayList<Integer> remaining = new ArrayList<>(), nextRemaining = new ArrayList<>();
+        //// Merge stacks, into the first ones of the same item
+        // As with move(), locked stacks stay in place but still take stacks merged into them
+        @NotNull Map<Item, List<Integer>> openStacks = new IdentityHashMap<>();
         for(int i = 0; i < size; i++) {
-            if(hasToBeMoved(i, 1)) {
-                remaining.add(i);
-                nextRemaining.add(i);
+            @NotNull ItemStack stack = model.getItemStack(i);
+            if(stack.isEmpty() || frozenSlots[i]) {
+                continue;
             }
-        }
-
-        int iterations = 0;
-        while(remaining.size() > 0 && iterations++ < 50) {
-            for(int i : remaining) {
-                if(hasToBeMoved(i, 1)) {
-                    for(int j = 0; j < size; j++) {
-                        if(move(i, j, 1) != -1) {
-                            nextRemaining.remove((Integer) j);
-                            break;
-                        }
+            @NotNull List<Integer> sameItemStacks = openStacks.computeIfAbsent(stack.getItem(), item -> new ArrayList<>());
+            if(lockPriorities[i] <= 1 && hasToBeMoved(i, 1)) {
+                for(Iterator<Integer> it = sameItemStacks.iterator(); it.hasNext() && !stack.isEmpty(); ) {
+                    int j = it.next();
+                    if(canMergeStacks(stack, model.getItemStack(j))) {
+                        model.move(i, j);
+                    }
+                    if(model.getItemStack(j).getCount() >= model.getItemStack(j).getMaxStackSize()) {
+                        it.remove();
                     }
-                } else {
-                    nextRemaining.remove((Integer) i);
                 }
+                if(stack.isEmpty()) {
+                    markAsNotMoved(i);
+                    keywordOrder[i] = -1;
+                    continue;
+                }
+            }
+            if(stack.getCount() < stack.getMaxStackSize()) {
+                sameItemStacks.add(i);
             }
-            remaining.clear();
-            remaining.addAll(nextRemaining);
         }
-        if(iterations == 100) {
-            log.warn("Sorting takes too long, aborting.");
+
+        //// Sort the remaining stacks, and list the slots they can use
+        @NotNull List<Integer> remaining = new ArrayList<>();
+        @NotNull List<Integer> freeSlots = new ArrayList<>();
+        for(int i = 0; i < size; i++) {
+            if(frozenSlots[i] || lockPriorities[i] > 1) {
+                continue;
+            }
+            if(model.getItemStack(i).isEmpty()) {
+                freeSlots.add(i);
+            } else if(hasToBeMoved(i, 1)) {
+                remaining.add(i);
+                freeSlots.add(i);
+            }
         }
+        remaining.sort((i, j) -> InvTweaks.getInstance().compareItems(model.getItemStack(i), model.getItemStack(j), keywordOrder[i], keywordOrder[j]));
+
+        //// Move them in order, each straight to its slot
+        // Index in the sorted list of the stack each slot holds, and the reverse
+        @NotNull int[] slotStacks = new int[size];
+        @NotNull int[] stackSlots = new int[remaining.size()];
+        Arrays.fill(slotStacks, -1);
+        for(int k = 0; k < remaining.size(); k++) {
+            stackSlots[k] = remaining.get(k);
+            slotStacks[remaining.get(k)] = k;
+        }
+        // Free slots before this index hold placed stacks
+        int nextFreeSlot = 0;
+        for(int k = 0; k < remaining.size(); k++) {
+            int from = stackSlots[k];
+            // Take the first free slot accepting the stack. Slots refusing it stay free for the next stacks.
+            int freeSlot = nextFreeSlot;
+            while(freeSlot < freeSlots.size() && freeSlots.get(freeSlot) != from && !model.swap(from, freeSlots.get(freeSlot))) {
+                freeSlot++;
+            }
+            if(freeSlot == freeSlots.size()) {
+                // No slot accepts it, it stays where it is
+                continue;
+            }
+            int to = (freeSlot == nextFreeSlot) ? freeSlots.get(nextFreeSlot++) : freeSlots.remove(freeSlot);
+            if(from != to) {
+                int displaced = slotStacks[to];
+                slotStacks[from] = displaced;
+                if(displaced != -1) {
+                    stackSlots[displaced] = from;
+                }
+                slotStacks[to] = k;
+                stackSlots[k] = to;
 
+                int order = keywordOrder[to];
+                keywordOrder[to] = keywordOrder[from];
+                keywordOrder[from] = order;
+                rulePriority[from] = (displaced != -1) ? 1 : -1;
+            }
+            markAsMoved(stackSlots[k], 1);
+        }
     }
 
     private boolean canSwapSlots(int i, int j, int priority) {
@@ -460,7 +607,7 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
      * @return -1 if it failed, j if the stacks were merged into one, n if the j stack has been moved to the n slot.
      */
     private int move(int i, int j, int priority) {
-        @NotNull ItemStack from = containerMgr.getItemStack(i), to = containerMgr.getItemStack(j);
+        @NotNull ItemStack from = model.getItemStack(i), to = model.getItemStack(j);
 
         if(from.isEmpty() || frozenSlots[j] || frozenSlots[i]) {
             return -1;
@@ -481,7 +628,7 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
                 keywordOrder[i] = -1;
                 rulePriority[j] = priority;
                 keywordOrder[j] = getItemOrder(from);
-                if(containerMgr.move(i, j)) {
+                if(model.move(i, j)) {
                     return j;
                 } else {
                     return -1;
@@ -494,23 +641,23 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
                     keywordOrder[j] = keywordOrder[i];
                     rulePriority[j] = priority;
                     rulePriority[i] = -1;
-                    boolean success = containerMgr.move(i, j);
+                    boolean success = model.move(i, j);
 
                     if(success) {
-                        @NotNull ItemStack remains = containerMgr.getItemStack(i);
+                        @NotNull ItemStack remains = model.getItemStack(i);
 
                         if(!remains.isEmpty()) {
                             int dropSlot = i;
                             if(lockPriorities[j] > lockPriorities[i]) {
                                 for(int k = 0; k < size; k++) {
-                                    if(containerMgr.getItemStack(k).isEmpty() && lockPriorities[k] == 0) {
+                                    if(model.getItemStack(k).isEmpty() && lockPriorities[k] == 0) {
                                         dropSlot = k;
                                         break;
                                     }
                                 }
                             }
                             if(dropSlot != i) {
-                                if(!containerMgr.move(i, dropSlot)) {
+                                if(!model.move(i, dropSlot)) {
                                     // TODO: This is a potentially bad situation: One move succeeded, then the rest failed.
                                     return -1;
                                 }
@@ -541,19 +688,35 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
     }
 
     private boolean hasToBeMoved(int slot, int priority) {
-        return !containerMgr.getItemStack(slot).isEmpty() && rulePriority[slot] <= priority;
+        return !model.getItemStack(slot).isEmpty() && rulePriority[slot] <= priority;
     }
 
     private boolean isOrderedBefore(int i, int j) {
-        @NotNull ItemStack iStack = containerMgr.getItemStack(i), jStack = containerMgr.getItemStack(j);
+        @NotNull ItemStack iStack = model.getItemStack(i), jStack = model.getItemStack(j);
 
         return InvTweaks.getInstance().compareItems(iStack, jStack, keywordOrder[i], keywordOrder[j]) < 0;
     }
 
+    /**
+     * @return true if the rule at this index matches the (non-empty) stack
+     */
+    private boolean matchesRule(@NotNull ItemStack stack, int ruleIndex) {
+        @Nullable BitSet matches = ruleMatches.get(stack);
+        if(matches == null) {
+            matches = new BitSet(rules.size());
+            @NotNull List<IItemTreeItem> items = tree.getItems(stack);
+            for(int i = 0; i < rules.size(); i++) {
+                if(tree.matches(items, rules.get(i).getKeyword())) {
+                    matches.set(i);
+                }
+            }
+            ruleMatches.put(stack, matches);
+        }
+        return matches.get(ruleIndex);
+    }
+
     private int getItemOrder(@NotNull ItemStack itemStack) {
-        // TODO: It looks like Mojang changed the internal name type to ResourceLocation. Evaluate how much of a pain that will be.
-        @NotNull List<IItemTreeItem> items = tree.getItems(itemStack.getItem().getRegistryName().toString(), itemStack.getItemDamage(), itemStack.getTagCompound());
-        return (items.size() > 0) ? items.get(0).getOrder() : Integer.MAX_VALUE;
+        return tree.getItemOrder(itemStack);
     }
 
     private void computeLineSortingRules(int rowSize, boolean horizontal) {
@@ -696,14 +859,13 @@ public class InvTweaksHandlerSorting extends InvTweaksObfuscation {
         @NotNull Map<Integer, IItemTreeItem> itemSearch = new HashMap<>();
 
         for(int i = 0; i < size; i++) {
-            @NotNull ItemStack stack = containerMgr.getItemStack(i);
+            @NotNull ItemStack stack = model.getItemStack(i);
             if(!stack.isEmpty()) {
                 // TODO: ID Changes (Leaving as-is for now because WHY)
                 int itemSearchKey = Item.getIdFromItem(stack.getItem()) * 100000 + ((stack.getMaxStackSize() != 1) ? stack.getItemDamage() : 0);
                 IItemTreeItem item = itemSearch.get(itemSearchKey);
                 if(item == null) {
-                    // TODO: It looks like Mojang changed the internal name type to ResourceLocation. Evaluate how much of a pain that will be.
-                    item = tree.getItems(stack.getItem().getRegistryName().toString(), stack.getItemDamage(), stack.getTagCompound()).get(0);
+                    item = tree.getItems(stack).get(0);
                     itemSearch.put(itemSearchKey, item);
                     stats.put(item, 1);
                 } else {
@@ -0,0 +1,116 @@
+package invtweaks;
+
+import net.minecraft.creativetab.CreativeTabs;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.util.NonNullList;
+import net.minecraftforge.fml.common.registry.ForgeRegistries;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * All the item stacks of the game (every item and its creative subtypes), indexed by class. Used to resolve the class
+ * entries of the item tree. Enumerating the stacks is expensive, so the catalog is kept across tree reloads until the
+ * item registry changes.
+ */
+public class InvTweaksItemCatalog {
+
+    @Nullable
+    private static InvTweaksItemCatalog instance = null;
+
+    private final int registrySignature;
+    @NotNull
+    private final List<ItemStack> stacks = new ArrayList<>();
+    /**
+     * Stacks (by index) whose item is an instance of each class, for every class in the items hierarchies
+     */
+    @NotNull
+    private final Map<Class<?>, BitSet> stacksByClass = new HashMap<>();
+    @NotNull
+    private final Map<Class<?>, String> lowerCaseClassNames = new HashMap<>();
+    /**
+     * Stacks matching each class name suffix queried so far
+     */
+    @NotNull
+    private final Map<String, List<ItemStack>> stacksByClassName = new ConcurrentHashMap<>();
+
+    private InvTweaksItemCatalog(int registrySignature_) {
+        registrySignature = registrySignature_;
+
+        for(Item item : ForgeRegistries.ITEMS.getValuesCollection()) {
+            int first = stacks.size();
+            if(item.getHasSubtypes()) {
+                for(CreativeTabs tab : item.getCreativeTabs()) {
+                    if(tab != null) {
+                        NonNullList<ItemStack> subItems = NonNullList.create();
+                        item.getSubItems(tab, subItems);
+                        // FIXME: Ignore identical duplicate entries from different tabs...
+                        stacks.addAll(subItems);
+                    }
+                }
+            } else {
+                stacks.add(item.getDefaultInstance());
+            }
+
+            if(stacks.size() > first) {
+                for(Class<?> testClass = item.getClass(); testClass != null; testClass = testClass.getSuperclass()) {
+                    stacksByClass.computeIfAbsent(testClass, c -> new BitSet()).set(first, stacks.size());
+                    lowerCaseClassNames.computeIfAbsent(testClass, c -> c.getName().toLowerCase());
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the whole item registry, so it should be called once per tree load rather than once per class entry.
+     *
+     * @return The catalog of the current item registry
+     */
+    @NotNull
+    public static synchronized InvTweaksItemCatalog getInstance() {
+        int signature = computeRegistrySignature();
+        if(instance == null || instance.registrySignature != signature) {
+            instance = new InvTweaksItemCatalog(signature);
+        }
+        return instance;
+    }
+
+    /**
+     * Cheap enough to check once per reload, unlike the stacks enumeration.
+     */
+    private static int computeRegistrySignature() {
+        int signature = 1;
+        for(Item item : ForgeRegistries.ITEMS.getValuesCollection()) {
+            signature = 31 * signature + System.identityHashCode(item);
+        }
+        return signature;
+    }
+
+    /**
+     * @param className A lower case class name suffix
+     * @return The stacks whose item class (or one of its superclasses) name ends with the given suffix, in catalog
+     * order. Must not be modified.
+     */
+    @NotNull
+    public List<ItemStack> getStacks(@NotNull String className) {
+        return stacksByClassName.computeIfAbsent(className, name -> {
+            // Only the distinct classes are tested, rather than the hierarchy of every stack
+            @NotNull BitSet matches = new BitSet(stacks.size());
+            for(Map.Entry<Class<?>, String> entry : lowerCaseClassNames.entrySet()) {
+                if(entry.getValue().endsWith(name)) {
+                    matches.or(stacksByClass.get(entry.getKey()));
+                }
+            }
+
+            @NotNull List<ItemStack> result = new ArrayList<>(matches.cardinality());
+            for(int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+                result.add(stacks.get(i));
+            }
+            return Collections.unmodifiableList(result);
+        });
+    }
+
+}
@@ -0,0 +1,169 @@
+package invtweaks;
+
+import com.google.common.collect.Multimap;
+import net.minecraft.enchantment.Enchantment;
+import net.minecraft.enchantment.EnchantmentHelper;
+import net.minecraft.entity.SharedMonsterAttributes;
+import net.minecraft.entity.ai.attributes.AttributeModifier;
+import net.minecraft.inventory.EntityEquipmentSlot;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemArmor;
+import net.minecraft.item.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Properties of a stack used by {@link InvTweaks#compareItems}, read once: tools, weapon attributes, armor, name,
+ * enchantments and durability. Reading them builds maps and does localization lookups, so comparing these records is
+ * much cheaper than comparing the stacks. The stack size and damage are still read from the stacks, as sorting changes
+ * them.
+ */
+public class InvTweaksItemComparisonKey {
+
+    /**
+     * Keys of stacks, by stack reference, while a session is open on the thread
+     */
+    private static final ThreadLocal<Session> session = new ThreadLocal<>();
+
+    @NotNull
+    final String toolClass;
+    final int harvestLevel;
+    final boolean hasAttackDamage;
+    final double attackDamage;
+    final boolean hasAttackSpeed;
+    final double attackSpeed;
+    @Nullable
+    final EntityEquipmentSlot armorType;
+    final int armorDamageReduction;
+    final float armorToughness;
+    final boolean hasDisplayName;
+    @NotNull
+    final String displayName;
+    final int enchantmentCount;
+    final int topEnchantmentId;
+    final int topEnchantmentLevel;
+    /**
+     * Max damage, or Integer.MAX_VALUE for items that can't be damaged
+     */
+    final int maxDamage;
+    final boolean damageable;
+    @NotNull
+    final String registryName;
+
+    private InvTweaksItemComparisonKey(@NotNull ItemStack stack) {
+        Item item = stack.getItem();
+
+        toolClass = InvTweaks.getToolClass(stack, item);
+        harvestLevel = toolClass.isEmpty() ? 0 : item.getHarvestLevel(stack, toolClass, null, null);
+
+        Multimap<String, AttributeModifier> modifiers = stack.getAttributeModifiers(EntityEquipmentSlot.MAINHAND);
+        @Nullable Double damage = getFirstAmount(modifiers.get(SharedMonsterAttributes.ATTACK_DAMAGE.getName()));
+        @Nullable Double speed = getFirstAmount(modifiers.get(SharedMonsterAttributes.ATTACK_SPEED.getName()));
+        hasAttackDamage = damage != null;
+        attackDamage = (damage != null) ? damage : 0;
+        hasAttackSpeed = speed != null;
+        attackSpeed = (speed != null) ? speed : 0;
+
+        if(item instanceof ItemArmor) {
+            @NotNull ItemArmor armor = (ItemArmor) item;
+            armorType = armor.armorType;
+            armorDamageReduction = armor.damageReduceAmount;
+            armorToughness = armor.toughness;
+        } else {
+            armorType = null;
+            armorDamageReduction = 0;
+            armorToughness = 0;
+        }
+
+        hasDisplayName = stack.hasDisplayName();
+        displayName = stack.getDisplayName();
+
+        @NotNull Map<Enchantment, Integer> enchantments = EnchantmentHelper.getEnchantments(stack);
+        int maxId = 0, maxLevel = 0;
+        // TODO: This is really arbitrary but there's not really a good way to do this generically.
+        for(@NotNull Map.Entry<Enchantment, Integer> enchantment : enchantments.entrySet()) {
+            int id = Enchantment.getEnchantmentID(enchantment.getKey());
+            if(enchantment.getValue() > maxLevel) {
+                maxId = id;
+                maxLevel = enchantment.getValue();
+            } else if(enchantment.getValue() == maxLevel && id > maxId) {
+                maxId = id;
+            }
+        }
+        enchantmentCount = enchantments.size();
+        topEnchantmentId = maxId;
+        topEnchantmentLevel = maxLevel;
+
+        maxDamage = (stack.getMaxDamage() <= 0) ? Integer.MAX_VALUE : stack.getMaxDamage();
+        damageable = stack.isItemStackDamageable();
+        registryName = item.getRegistryName().toString();
+    }
+
+    @Nullable
+    private static Double getFirstAmount(@NotNull Collection<AttributeModifier> modifiers) {
+        return modifiers.isEmpty() ? null : modifiers.iterator().next().getAmount();
+    }
+
+    @NotNull
+    public static InvTweaksItemComparisonKey of(@NotNull ItemStack stack) {
+        return new InvTweaksItemComparisonKey(stack);
+    }
+
+    /**
+     * Same as {@link #of}, but reuses the key of the same stack while a session is open.
+     */
+    @NotNull
+    public static InvTweaksItemComparisonKey forStack(@NotNull ItemStack stack) {
+        @Nullable Session current = session.get();
+        if(current == null) {
+            return of(stack);
+        }
+        return current.keys.computeIfAbsent(stack, InvTweaksItemComparisonKey::new);
+    }
+
+    /**
+     * Caches stack keys on the current thread until the session is closed. Stack items and tags must not be modified
+     * meanwhile. Sessions can be nested.
+     */
+    @NotNull
+    public static Session openSession() {
+        return openSession(null);
+    }
+
+    /**
+     * Same as {@link #openSession()}, keeping the keys in the given map, so they can outlive the session. Ignored if a
+     * session is already open.
+     */
+    @NotNull
+    public static Session openSession(@Nullable Map<ItemStack, InvTweaksItemComparisonKey> keys) {
+        @Nullable Session current = session.get();
+        if(current == null) {
+            current = new Session((keys != null) ? keys : new IdentityHashMap<>());
+            session.set(current);
+        }
+        current.depth++;
+        return current;
+    }
+
+    public static class Session implements AutoCloseable {
+        @NotNull
+        private final Map<ItemStack, InvTweaksItemComparisonKey> keys;
+        private int depth = 0;
+
+        private Session(@NotNull Map<ItemStack, InvTweaksItemComparisonKey> keys_) {
+            keys = keys_;
+        }
+
+        @Override
+        public void close() {
+            if(--depth == 0) {
+                session.remove();
+            }
+        }
+    }
+
+}
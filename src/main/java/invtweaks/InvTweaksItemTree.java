@@ -4,13 +4,10 @@ package invtweaks;
 import invtweaks.api.IItemTree;
 import invtweaks.api.IItemTreeCategory;
 import invtweaks.api.IItemTreeItem;
-import net.minecraft.creativetab.CreativeTabs;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemArmor;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NBTTagCompound;
-import net.minecraft.nbt.NBTUtil;
-import net.minecraft.util.NonNullList;
 import net.minecraft.util.ResourceLocation;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.registry.ForgeRegistries;
@@ -20,10 +17,16 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Contains the whole hierarchy of categories and items, as defined in the XML item tree. Is used to recognize keywords
  * and store item orders.
+ * <p>
+ * Changes are made under the tree lock, and lookups are answered by an immutable {@link InvTweaksItemTreeIndex}, so
+ * the tree can be read from any thread without locking. Changes made after the index was built are kept in a
+ * concurrent overlay, also checked by the lookups, until the next index is published with them.
  *
  * @author Jimeo Wan
  */
@@ -48,36 +51,129 @@ public class InvTweaksItemTree implements IItemTree {
      */
     @NotNull
     private Map<String, List<IItemTreeItem>> itemsByName = new HashMap<>(500);
+    /**
+     * Category membership, compiled as bitsets over category indices. Each category has the set of itself and its
+     * ancestors, each tree item the union of the sets of the categories it was added to.
+     */
+    @NotNull
+    private Map<IItemTreeCategory, Integer> categoryIndices = new IdentityHashMap<>();
+    @NotNull
+    private Map<IItemTreeCategory, BitSet> categoryAncestors = new IdentityHashMap<>();
+    @NotNull
+    private Map<IItemTreeItem, BitSet> itemAncestors = new IdentityHashMap<>(500);
+    /**
+     * Path of each category, as built from its parents
+     */
+    @NotNull
+    private Map<IItemTreeCategory, InvTweaksItemTreePath> categoryPaths = new IdentityHashMap<>();
+    /**
+     * Root of the interned paths of this tree, replaced on reset so the previous paths can be collected
+     */
+    @NotNull
+    private volatile InvTweaksItemTreePath pathRoot = InvTweaksItemTreePath.createRoot();
+    /**
+     * Lookup structures published to the readers, with the changes made since. Replaced at once when the tree is
+     * loaded, and built on the first lookup if it wasn't yet.
+     */
+    @Nullable
+    private volatile Published published = null;
+    /**
+     * Entries created for items that are missing from the tree. Filled by the readers, so they are kept apart from
+     * the index.
+     */
+    @NotNull
+    private InvTweaksItemTreeUncategorized uncategorizedItems = new InvTweaksItemTreeUncategorized(InvTweaksConst.MAX_UNCATEGORIZED_ITEMS);
 
     private String rootCategory;
     @NotNull
-    private List<OreDictInfo> oresRegistered = new ArrayList<>();
+    private Map<String, List<OreDictInfo>> oresRegistered = new HashMap<>();
+    private int oresRegisteredCount = 0;
+    /**
+     * Ore registrations received while the tree is loading, applied at once when it is done. Null once loaded.
+     */
+    @Nullable
+    private List<PendingOre> pendingOres = new ArrayList<>();
 
     @NotNull
-    private List<ItemStack> allGameItems = new ArrayList<ItemStack>();
+    private final AtomicInteger highestOrder = new AtomicInteger();
 
-    private int highestOrder = 0;
+    private volatile int lastTreeOrder = 0;
+
+    /**
+     * Records the changes made while loading, to save them as a snapshot
+     */
+    @Nullable
+    private InvTweaksItemTreeSnapshot recorder = null;
 
-    private int lastTreeOrder = 0;
+    /**
+     * Load timings, expansion and lookup counters, for the diagnostics report
+     */
+    @NotNull
+    private volatile InvTweaksItemTreeStats stats = new InvTweaksItemTreeStats();
 
     public InvTweaksItemTree() {
         reset();
     }
 
-    public void reset() {
+    public synchronized void reset() {
 
         if(defaultItems == null) {
             defaultItems = new ArrayList<>();
-            defaultItems.add(new InvTweaksItemTreeItem(UNKNOWN_ITEM, null, InvTweaksConst.DAMAGE_WILDCARD, null, Integer.MAX_VALUE, getRootCategory().getName()));
+            // No tree is loaded yet
+            @Nullable IItemTreeCategory root = (rootCategory != null) ? categories.get(rootCategory) : null;
+            defaultItems.add(new InvTweaksItemTreeItem(UNKNOWN_ITEM, null, InvTweaksConst.DAMAGE_WILDCARD, null, Integer.MAX_VALUE, (root != null) ? root.getName() : ""));
         }
 
         // Reset tree
         categories.clear();
         itemsByName.clear();
         itemsById.clear();
+        categoryIndices.clear();
+        categoryAncestors.clear();
+        itemAncestors.clear();
+        categoryPaths.clear();
+        pathRoot = InvTweaksItemTreePath.createRoot();
+        published = null;
+        uncategorizedItems.clear();
 
     }
 
+    /**
+     * @return The published index and the changes made since, built if none was published yet
+     */
+    @NotNull
+    private Published getPublished() {
+        @Nullable Published current = published;
+        if(current == null) {
+            synchronized(this) {
+                current = published;
+                if(current == null) {
+                    current = new Published(buildIndex());
+                    published = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    @NotNull
+    private InvTweaksItemTreeIndex getIndex() {
+        return getPublished().index;
+    }
+
+    @NotNull
+    private InvTweaksItemTreeIndex buildIndex() {
+        return new InvTweaksItemTreeIndex(rootCategory, categories, itemsById, itemsByName, categoryIndices, itemAncestors, pathRoot);
+    }
+
+    /**
+     * Builds an index of the current tree contents, and publishes it with an empty overlay. Meant to be called once per
+     * batch of changes, e.g. once the tree files are read.
+     */
+    public synchronized void publishIndex() {
+        published = new Published(buildIndex());
+    }
+
     /**
      * Checks if given item ID matches a given keyword (either the item's name is the keyword, or it is in the keyword
      * category)
@@ -107,33 +203,57 @@ public class InvTweaksItemTree implements IItemTree {
         }
 
         // Everything is stuff
-        return keyword.equals(rootCategory);
+        @Nullable IItemTreeCategory root = getRootCategory();
+        return root != null && keyword.equals(root.getName());
 
     }
 
     @Override
     public int getKeywordDepth(String keyword) {
-        try {
-            return getRootCategory().findKeywordDepth(keyword);
-        } catch(NullPointerException e) {
-            log.error("The root category is missing: " + e.getMessage());
+        if(getRootCategory() == null) {
+            log.error("The root category is missing");
             return 0;
         }
+        @NotNull Published current = getPublished();
+        @Nullable InvTweaksItemTreeIndex.KeywordInfo info = current.index.getKeyword(keyword);
+        if(info == null && current.hasChanges()) {
+            // Maybe added since the index was built
+            return getRootCategory().findKeywordDepth(keyword);
+        }
+        return (info != null) ? info.depth : -1;
     }
 
     @Override
     public int getKeywordOrder(String keyword) {
-        List<IItemTreeItem> items = getItems(keyword);
-        if(items != null && items.size() != 0) {
-            return items.get(0).getOrder();
-        } else {
-            try {
-                return getRootCategory().findCategoryOrder(keyword);
-            } catch(NullPointerException e) {
-                log.error("The root category is missing: " + e.getMessage());
-                return -1;
-            }
+        if(getRootCategory() == null) {
+            log.error("The root category is missing");
+            return -1;
         }
+        @NotNull Published current = getPublished();
+        @Nullable InvTweaksItemTreeIndex.KeywordInfo info = current.index.getKeyword(keyword);
+        if(info == null && current.hasChanges()) {
+            List<IItemTreeItem> items = getItems(keyword);
+            return (items != null && items.size() != 0) ? items.get(0).getOrder() : getRootCategory().findCategoryOrder(keyword);
+        }
+        return (info != null) ? info.order : -1;
+    }
+
+    /**
+     * Same result as {@link IItemTreeCategory#findKeywordPath} on the root category.
+     *
+     * @return The path of the first category or item with this name, or an empty string if there is none
+     */
+    @NotNull
+    public String getKeywordPath(String keyword) {
+        if(getRootCategory() == null) {
+            return "";
+        }
+        @NotNull Published current = getPublished();
+        @Nullable InvTweaksItemTreeIndex.KeywordInfo info = current.index.getKeyword(keyword);
+        if(info == null && current.hasChanges()) {
+            return getRootCategory().findKeywordPath(keyword);
+        }
+        return (info != null) ? info.path.toString() : "";
     }
 
     /**
@@ -160,28 +280,47 @@ public class InvTweaksItemTree implements IItemTree {
     @NotNull
     @Override
     public Collection<IItemTreeCategory> getAllCategories() {
-        return categories.values();
+        @NotNull Published current = getPublished();
+        if(current.addedCategories.isEmpty()) {
+            return current.index.categories.values();
+        }
+        @NotNull List<IItemTreeCategory> allCategories = new ArrayList<>(current.index.categories.values());
+        allCategories.addAll(current.addedCategories.values());
+        return Collections.unmodifiableList(allCategories);
     }
 
     @Override
     public IItemTreeCategory getRootCategory() {
-        return categories.get(rootCategory);
+        return getIndex().getRootCategory();
     }
 
     @Override
-    public void setRootCategory(@NotNull IItemTreeCategory category) {
+    public synchronized void setRootCategory(@NotNull IItemTreeCategory category) {
         rootCategory = category.getName();
         categories.put(rootCategory, category);
+        indexCategory(null, category);
+        // A new tree starts, it is indexed again from scratch
+        published = null;
+        if(recorder != null) {
+            recorder.recordRoot(rootCategory);
+        }
     }
 
     @Override
     public IItemTreeCategory getCategory(String keyword) {
-        return categories.get(keyword);
+        @NotNull Published current = getPublished();
+        IItemTreeCategory category = current.index.categories.get(keyword);
+        if(category == null && keyword != null) {
+            category = current.addedCategories.get(keyword);
+        }
+        return category;
     }
 
     @Override
     public boolean isItemUnknown(String id, int damage) {
-        return itemsById.get(id) == null;
+        // Items met before are known through their uncategorized entries, as when they were added to the tree
+        @NotNull Published current = getPublished();
+        return current.index.itemsById.get(id) == null && current.getAddedItems(current.addedById, id) == null && (id == null || !uncategorizedItems.containsId(InvTweaksObfuscation.getNamespacedID(id)));
     }
 
     @NotNull
@@ -191,15 +330,19 @@ public class InvTweaksItemTree implements IItemTree {
             return new ArrayList<>();
         }
 
-        List<IItemTreeItem> items = itemsById.get(id);
+        @NotNull Published current = getPublished();
+        List<IItemTreeItem> items = current.index.itemsById.get(id);
         @NotNull List<IItemTreeItem> filteredItems = new ArrayList<>();
-        if(items != null) {
-            filteredItems.addAll(items);
-        }
 
-        // Filter items of same ID, but different damage value
-        if(items != null && !items.isEmpty()) {
-            items.stream().filter(item -> item.getDamage() != InvTweaksConst.DAMAGE_WILDCARD && item.getDamage() != damage).forEach(filteredItems::remove);
+        // Filter items of same ID, but different damage value, and use the view of ranges for this damage value
+        for(@Nullable List<IItemTreeItem> idItems : Arrays.asList(items, current.getAddedItems(current.addedById, id))) {
+            if(idItems != null) {
+                for(@NotNull IItemTreeItem item : idItems) {
+                    if(InvTweaksItemTreeItem.matchesDamage(item, damage)) {
+                        filteredItems.add(InvTweaksItemTreeItem.forDamage(item, damage));
+                    }
+                }
+            }
         }
 
         items = filteredItems;
@@ -207,18 +350,12 @@ public class InvTweaksItemTree implements IItemTree {
 
         // Filter items that don't match extra data
         if(extra != null && !items.isEmpty()) {
-            items.stream().filter(item -> !NBTUtil.areNBTEquals(item.getExtraData(), extra, true)).forEach(filteredItems::remove);
+            items.stream().filter(item -> !InvTweaksItemTreeItem.matchesExtraData(item, extra)).forEach(filteredItems::remove);
         }
 
-        // If there's no matching item, create new ones
+        // If there's no matching item, use (or create) uncategorized ones
         if(filteredItems.isEmpty()) {
-            int newItemOrder = highestOrder + 1;
-            @NotNull IItemTreeItem newItemId = new InvTweaksItemTreeItem(String.format("%s-%d", id, damage), id, damage, null, newItemOrder, getRootCategory().getName() + "\\_uncategorized\\" + String.format("%s-%d", id, damage));
-            @NotNull IItemTreeItem newItemDamage = new InvTweaksItemTreeItem(id, id, InvTweaksConst.DAMAGE_WILDCARD, null, newItemOrder, getRootCategory().getName() + "\\_uncategorized\\" + id);
-            addItem(getRootCategory().getName(), newItemId);
-            addItem(getRootCategory().getName(), newItemDamage);
-            filteredItems.add(newItemId);
-            filteredItems.add(newItemDamage);
+            filteredItems.addAll(getUncategorizedItems(id, damage));
         }
 
         filteredItems.removeIf(Objects::isNull);
@@ -233,25 +370,79 @@ public class InvTweaksItemTree implements IItemTree {
         return getItems(id, damage, null);
     }
 
+    /**
+     * Same as {@link #getItems(String, int, NBTTagCompound)}, but resolved through the item reference. The returned
+     * list must not be modified.
+     */
+    @NotNull
+    @Override
+    public List<IItemTreeItem> getItems(@NotNull Item item, int damage, @Nullable NBTTagCompound extra) {
+        @NotNull Published current = getPublished();
+        if(!current.addedItemRefs.isEmpty() && current.addedItemRefs.contains(item)) {
+            // Items added since the index was built are only found by the string lookup
+            stats.addLookup(false);
+            return getItems(item.getRegistryName().toString(), damage, extra);
+        }
+        @Nullable List<IItemTreeItem> items = current.index.getItems(item, damage, extra);
+        boolean hit = items != null && !items.isEmpty();
+        stats.addLookup(hit);
+        if(hit) {
+            return items;
+        }
+
+        // Unknown item, fall back to the string lookup so it gets registered
+        return getItems(item.getRegistryName().toString(), damage, extra);
+    }
+
+    @NotNull
+    @Override
+    public List<IItemTreeItem> getItems(@NotNull Item item, int damage) {
+        return getItems(item, damage, null);
+    }
+
+    @NotNull
+    @Override
+    public List<IItemTreeItem> getItems(@NotNull ItemStack stack) {
+        return getItems(stack.getItem(), stack.getItemDamage(), stack.getTagCompound());
+    }
+
     @Override
     public List<IItemTreeItem> getItems(String name) {
-        return itemsByName.get(name);
+        if(name == null) {
+            return null;
+        }
+        @NotNull Published current = getPublished();
+        @Nullable List<IItemTreeItem> items = current.index.getItems(name);
+        @Nullable List<IItemTreeItem> addedItems = current.getAddedItems(current.addedByName, name);
+        if(addedItems == null) {
+            return items;
+        } else if(items == null) {
+            return addedItems;
+        }
+        @NotNull List<IItemTreeItem> allItems = new ArrayList<>(items);
+        allItems.addAll(addedItems);
+        return allItems;
     }
 
     @NotNull
     @Override
     public IItemTreeItem getRandomItem(@NotNull Random r) {
-        return (IItemTreeItem) itemsByName.values().toArray()[r.nextInt(itemsByName.size())];
+        @NotNull Map<String, List<IItemTreeItem>> items = getIndex().itemsByName;
+        return (IItemTreeItem) items.values().toArray()[r.nextInt(items.size())];
     }
 
     @Override
     public boolean containsItem(String name) {
-        return itemsByName.containsKey(name);
+        if(name == null) {
+            return false;
+        }
+        @NotNull Published current = getPublished();
+        return current.index.containsItem(name) || current.addedByName.containsKey(name);
     }
 
     @Override
     public boolean containsCategory(String name) {
-        return categories.containsKey(name);
+        return getCategory(name) != null;
     }
 
     @NotNull
@@ -270,27 +461,53 @@ public class InvTweaksItemTree implements IItemTree {
 
     @NotNull
     @Override
-    public IItemTreeItem addItem(String parentCategory, String name, String id, int damage, NBTTagCompound extra, int order) throws NullPointerException {
-        @NotNull InvTweaksItemTreeItem addedItem = new InvTweaksItemTreeItem(name, id, damage, extra, order, getRootCategory().findKeywordPath(parentCategory) + "\\" + name);
+    public synchronized IItemTreeItem addItem(String parentCategory, String name, String id, int damage, NBTTagCompound extra, int order) throws NullPointerException {
+        @Nullable InvTweaksItemTreePath parentPath = categoryPaths.get(categories.get(parentCategory));
+        if(parentPath == null) {
+            parentPath = pathRoot.resolve(categories.get(rootCategory).findKeywordPath(parentCategory));
+        }
+        @NotNull InvTweaksItemTreeItem addedItem = new InvTweaksItemTreeItem(name, id, damage, extra, order, parentPath.child(name));
         addItem(parentCategory, addedItem);
         return addedItem;
     }
 
     @Override
-    public void addCategory(String parentCategory, @NotNull IItemTreeCategory newCategory) throws NullPointerException {
+    public synchronized void addCategory(String parentCategory, @NotNull IItemTreeCategory newCategory) throws NullPointerException {
         // Build tree
-        categories.get(parentCategory).addCategory(newCategory);
+        IItemTreeCategory parent = categories.get(parentCategory);
+        parent.addCategory(newCategory);
 
         // Register category
         categories.put(newCategory.getName(), newCategory);
+        indexCategory(parent, newCategory);
+        @Nullable Published current = published;
+        if(current != null) {
+            current.addedCategories.put(newCategory.getName(), newCategory);
+        }
+        if(recorder != null) {
+            recorder.recordCategory(parentCategory, newCategory.getName());
+        }
     }
 
     @Override
-    public void addItem(String parentCategory, @NotNull IItemTreeItem newItem) throws NullPointerException {
-        highestOrder = Math.max(highestOrder, newItem.getOrder());
+    public synchronized void addItem(String parentCategory, @NotNull IItemTreeItem newItem) throws NullPointerException {
+        int lastOrder = (newItem instanceof InvTweaksItemTreeItem) ? ((InvTweaksItemTreeItem) newItem).getLastOrder() : newItem.getOrder();
+        highestOrder.accumulateAndGet(lastOrder, Math::max);
 
         // Build tree
-        categories.get(parentCategory).addItem(newItem);
+        IItemTreeCategory category = categories.get(parentCategory);
+        category.addItem(newItem);
+
+        // Register membership
+        @Nullable BitSet ancestors = categoryAncestors.get(category);
+        if(ancestors != null) {
+            @Nullable BitSet previousAncestors = itemAncestors.get(newItem);
+            if(previousAncestors != null) {
+                ancestors = (BitSet) ancestors.clone();
+                ancestors.or(previousAncestors);
+            }
+            itemAncestors.put(newItem, ancestors);
+        }
 
         // Register item
         if(itemsByName.containsKey(newItem.getName())) {
@@ -307,10 +524,207 @@ public class InvTweaksItemTree implements IItemTree {
             list.add(newItem);
             itemsById.put(newItem.getId(), list);
         }
+        @Nullable Published current = published;
+        if(current != null) {
+            current.addItem(newItem, itemAncestors.get(newItem));
+        }
+        if(recorder != null) {
+            recorder.recordItem(parentCategory, newItem);
+        }
+    }
+
+    private void indexCategory(@Nullable IItemTreeCategory parent, @NotNull IItemTreeCategory category) {
+        if(categoryIndices.containsKey(category)) {
+            return;
+        }
+        int index = categoryIndices.size();
+        categoryIndices.put(category, index);
+
+        @NotNull BitSet ancestors = new BitSet();
+        @Nullable BitSet parentAncestors = (parent != null) ? categoryAncestors.get(parent) : null;
+        if(parentAncestors != null) {
+            ancestors.or(parentAncestors);
+        }
+        ancestors.set(index);
+        categoryAncestors.put(category, ancestors);
+
+        @Nullable InvTweaksItemTreePath parentPath = (parent != null) ? categoryPaths.get(parent) : null;
+        categoryPaths.put(category, ((parentPath != null) ? parentPath : pathRoot).child(category.getName()));
+
+        if(category instanceof InvTweaksItemTreeCategory) {
+            ((InvTweaksItemTreeCategory) category).setTree(this);
+        }
+    }
+
+    /**
+     * @return The category index used by membership bitsets, or -1 if the category isn't part of this tree.
+     */
+    int getCategoryIndex(@NotNull IItemTreeCategory category) {
+        return getIndex().getCategoryIndex(category);
+    }
+
+    /**
+     * Same result as a recursive {@link IItemTreeCategory#contains} on the indexed category: true if the category or
+     * one of its subcategories stores an item that the given item equals.
+     */
+    boolean isInCategory(int categoryIndex, @NotNull IItemTreeItem item) {
+        @NotNull Published current = getPublished();
+        return current.index.isInCategory(categoryIndex, item) || current.isInCategory(categoryIndex, item);
+    }
+
+    /**
+     * Entries for items missing from the tree. They are stored apart from the tree with a bounded capacity, and all
+     * damage values of a damageable item share the same entry.
+     */
+    @NotNull
+    private List<IItemTreeItem> getUncategorizedItems(@NotNull String id, int damage) {
+        @Nullable Item item = getRegisteredItem(id);
+        boolean damageable = item != null && item.isDamageable();
+        @NotNull String key = damageable ? id : String.format("%s-%d", id, damage);
+        @Nullable List<IItemTreeItem> items = uncategorizedItems.get(key);
+        if(items != null) {
+            return items;
+        }
+        // Resolved outside of the store lock, as the tree lock must not be taken under it
+        @Nullable IItemTreeCategory root = getRootCategory();
+        @NotNull InvTweaksItemTreePath path = ((root != null) ? pathRoot.child(root.getName()) : pathRoot).child("_uncategorized");
+        int newItemOrder = getUncategorizedOrder(id, damageable ? 0 : damage);
+        return uncategorizedItems.computeIfAbsent(key, k -> {
+            @NotNull IItemTreeItem newItemDamage = new InvTweaksItemTreeItem(id, id, InvTweaksConst.DAMAGE_WILDCARD, null, newItemOrder, path.child(id));
+            if(damageable) {
+                return Collections.singletonList(newItemDamage);
+            } else {
+                @NotNull IItemTreeItem newItemId = new InvTweaksItemTreeItem(key, id, damage, null, newItemOrder, path.child(key));
+                return Collections.unmodifiableList(Arrays.asList(newItemId, newItemDamage));
+            }
+        });
+    }
+
+    /**
+     * Order of an uncategorized entry, after all the tree items. Items are ordered by first sight, then by damage value,
+     * and keep their orders once evicted, so an entry created again sorts at the same place.
+     */
+    private int getUncategorizedOrder(@NotNull String id, int damage) {
+        int base = Math.max(lastTreeOrder, highestOrder.get()) + 1;
+        return uncategorizedItems.getIdOrder(id, base) + (damage & InvTweaksConst.DAMAGE_WILDCARD);
+    }
+
+    @Nullable
+    private static Item getRegisteredItem(@NotNull String id) {
+        @NotNull ResourceLocation location = new ResourceLocation(id);
+        return ForgeRegistries.ITEMS.containsKey(location) ? ForgeRegistries.ITEMS.getValue(location) : null;
+    }
+
+    /**
+     * @return The amount of uncategorized entries currently stored
+     */
+    public int getUncategorizedCount() {
+        return uncategorizedItems.size();
+    }
+
+    /**
+     * @return The amount of uncategorized entries created since the tree was loaded, including evicted ones
+     */
+    public int getUncategorizedCreatedCount() {
+        return uncategorizedItems.getCreatedCount();
+    }
+
+    /**
+     * @return The amount of uncategorized entries evicted since the tree was loaded
+     */
+    public int getUncategorizedEvictedCount() {
+        return uncategorizedItems.getEvictedCount();
+    }
+
+    /**
+     * Compares the estimated heap used by the paths of the tree items, as interned nodes, with the heap they would
+     * need as one string per item.
+     */
+    @NotNull
+    public String getPathFootprintReport() {
+        @NotNull PathFootprint footprint = new PathFootprint(getIndex());
+        return String.format("Item tree paths: %d items, %d distinct path nodes (%d interned in total), ~%d KB as interned nodes instead of ~%d KB as strings",
+                footprint.itemCount, footprint.nodeCount, pathRoot.getNodeCount(), footprint.nodeBytes / 1024, footprint.stringBytes / 1024);
+    }
+
+    /**
+     * @return A readable summary of the tree contents, its estimated heap, its lookups and how long it took to load
+     */
+    @NotNull
+    public String getDiagnosticsReport() {
+        @NotNull InvTweaksItemTreeIndex current = getIndex();
+        @NotNull PathFootprint footprint = new PathFootprint(current);
+        long heapBytes = footprint.nodeBytes + footprint.itemBytes + current.getEstimatedSize();
+        long hits = stats.getLookupHits();
+        long misses = stats.getLookupMisses();
+        long lookups = hits + misses;
+
+        @NotNull StringBuilder report = new StringBuilder();
+        report.append("Inventory Tweaks item tree diagnostics\n\n");
+        report.append(String.format("Items: %d entries, %d names, %d IDs\n", footprint.itemCount, current.itemsByName.size(), current.itemsById.size()));
+        report.append(String.format("Categories: %d\n", current.categories.size()));
+        report.append(String.format("Ore dictionary entries: %d\n", stats.getOreEntries()));
+        report.append(String.format("Class entries: %d\n", stats.getClassEntries()));
+        report.append(String.format("Range entries: %d, covering %d damage values\n", stats.getRangeEntries(), stats.getRangeDamageValues()));
+        report.append(String.format("Uncategorized entries: %d stored, %d created, %d evicted (capacity %d)\n",
+                getUncategorizedCount(), getUncategorizedCreatedCount(), getUncategorizedEvictedCount(), InvTweaksConst.MAX_UNCATEGORIZED_ITEMS));
+        report.append(String.format("Estimated heap: ~%d KB (items ~%d KB, paths ~%d KB, index ~%d KB)\n",
+                heapBytes / 1024, footprint.itemBytes / 1024, footprint.nodeBytes / 1024, current.getEstimatedSize() / 1024));
+        report.append(String.format("Lookups: %d, %d answered by the index (%.1f%%), %d full lookups\n",
+                lookups, hits, (lookups > 0) ? 100.0 * hits / lookups : 0.0, misses));
+        report.append("\nLoad timings:\n");
+        for(@NotNull InvTweaksItemTreeStats.Phase phase : InvTweaksItemTreeStats.Phase.values()) {
+            report.append(String.format("  %-18s %8.1f ms\n", phase.getLabel(), stats.getTime(phase) / 1000000.0));
+        }
+        report.append("  (the XML parse includes the class scan and the ore registration done while loading)\n");
+        report.append('\n').append(getPathFootprintReport()).append('\n');
+        return report.toString();
+    }
+
+    /**
+     * Order of the first tree item matching the stack, as used for sorting. Read from the order table when possible.
+     *
+     * @return The order, or Integer.MAX_VALUE if there is no matching item
+     */
+    public int getItemOrder(@NotNull ItemStack stack) {
+        @NotNull Published current = getPublished();
+        // The table doesn't know about items added since the index was built, they may come first
+        if(current.addedItemRefs.isEmpty() || !current.addedItemRefs.contains(stack.getItem())) {
+            int order = current.index.getItemOrder(stack);
+            boolean hit = order != InvTweaksItemTreeIndex.ORDER_UNKNOWN;
+            stats.addLookup(hit);
+            if(hit) {
+                return order;
+            }
+        }
+
+        List<IItemTreeItem> items = getItems(stack);
+        return (items.size() > 0) ? items.get(0).getOrder() : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return The empty path of this tree, parent of its root category
+     */
+    @NotNull
+    public InvTweaksItemTreePath getPathRoot() {
+        return pathRoot;
+    }
+
+    void setRecorder(@Nullable InvTweaksItemTreeSnapshot recorder_) {
+        recorder = recorder_;
+    }
+
+    @NotNull
+    public InvTweaksItemTreeStats getStats() {
+        return stats;
+    }
+
+    void setStats(@NotNull InvTweaksItemTreeStats stats_) {
+        stats = stats_;
     }
 
     public int getHighestOrder() {
-        return highestOrder;
+        return highestOrder.get();
     }
 
     public int getLastTreeOrder() {
@@ -319,109 +733,271 @@ public class InvTweaksItemTree implements IItemTree {
 
     @Override
     public void registerOre(String category, String name, String oreName, int order, String path) {
+        registerOre(category, name, oreName, order, pathRoot.resolve(path));
+    }
+
+    void registerOre(String category, String name, String oreName, int order, @NotNull InvTweaksItemTreePath path) {
+        long start = System.nanoTime();
+        // Take the sequence first: an ore registered meanwhile may then be added twice, but can't be missed
+        int sequence = nextOreSequence();
         for(@Nullable ItemStack i : OreDictionary.getOres(oreName, false)) {
             if(i != null) {
                 // TODO: It looks like Mojang changed the internal name type to ResourceLocation. Evaluate how much of a pain that will be.
                 addItem(category, new InvTweaksItemTreeItem(name, i.getItem().getRegistryName().toString(), i.getItemDamage(), null, order, path));
+                stats.addOreEntry();
             } else {
                 log.warn(String.format("An OreDictionary entry for %s is null", oreName));
             }
         }
-        oresRegistered.add(new OreDictInfo(category, name, oreName, order, path));
+        addOre(new OreDictInfo(category, name, oreName, order, path, sequence));
+        stats.addTime(InvTweaksItemTreeStats.Phase.ORE_REGISTRATION, System.nanoTime() - start);
+    }
+
+    /**
+     * Registers an ore entry without adding the items currently in the dictionary, which are already in the tree.
+     */
+    void restoreOre(String category, String name, String oreName, int order, String path) {
+        addOre(new OreDictInfo(category, name, oreName, order, pathRoot.resolve(path), nextOreSequence()));
+    }
+
+    private void addOre(@NotNull OreDictInfo ore) {
+        synchronized(oresRegistered) {
+            oresRegistered.computeIfAbsent(ore.oreName, oreName -> new ArrayList<>()).add(ore);
+        }
+        if(recorder != null) {
+            recorder.recordOre(ore.category, ore.name, ore.oreName, ore.order, ore.orePath.toString());
+        }
+    }
+
+    private int nextOreSequence() {
+        synchronized(oresRegistered) {
+            return oresRegisteredCount++;
+        }
     }
 
     @SubscribeEvent
     public void oreRegistered(@NotNull OreDictionary.OreRegisterEvent ev) {
-        // TODO: It looks like Mojang changed the internal name type to ResourceLocation. Evaluate how much of a pain that will be.
-        oresRegistered.stream().filter(ore -> ore.oreName.equals(ev.getName())).forEach(ore -> {
-            @NotNull ItemStack evOre = ev.getOre();
+        synchronized(oresRegistered) {
+            if(pendingOres != null) {
+                pendingOres.add(new PendingOre(ev.getName(), ev.getOre(), oresRegisteredCount));
+                return;
+            }
+        }
+        addOreItems(ev.getName(), ev.getOre(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Applies the ore registrations received while loading.
+     */
+    private void flushPendingOres() {
+        @Nullable List<PendingOre> pending;
+        synchronized(oresRegistered) {
+            pending = pendingOres;
+            pendingOres = null;
+        }
+        if(pending != null) {
+            for(@NotNull PendingOre ore : pending) {
+                addOreItems(ore.oreName, ore.ore, ore.sequence);
+            }
+        }
+    }
+
+    /**
+     * @param sequence Only the ore entries registered before this sequence number are concerned, the later ones found
+     *                 the item in the dictionary already.
+     */
+    private void addOreItems(String oreName, @NotNull ItemStack evOre, int sequence) {
+        @Nullable List<OreDictInfo> ores;
+        synchronized(oresRegistered) {
+            ores = oresRegistered.get(oreName);
+            ores = (ores != null) ? new ArrayList<>(ores) : null;
+        }
+        if(ores == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        for(@NotNull OreDictInfo ore : ores) {
+            if(ore.sequence >= sequence) {
+                continue;
+            }
             if(!evOre.isEmpty()) {
                 // TODO: It looks like Mojang changed the internal name type to ResourceLocation. Evaluate how much of a pain that will be.
                 addItem(ore.category, new InvTweaksItemTreeItem(ore.name, evOre.getItem().getRegistryName().toString(), evOre.getItemDamage(), null, ore.order, ore.orePath));
+                stats.addOreEntry();
             } else {
-                log.warn(String.format("An OreDictionary entry for %s is null", ev.getName()));
+                log.warn(String.format("An OreDictionary entry for %s is null", oreName));
             }
-        });
-    }
-
-    public void registerClass(String category, String name, String className, NBTTagCompound extraData, int order, String path) {
-        if(allGameItems.size() == 0) {
-            populateGameItems();
         }
+        stats.addTime(InvTweaksItemTreeStats.Phase.ORE_REGISTRATION, System.nanoTime() - start);
+    }
 
-        for(ItemStack stack : allGameItems) {
+    /**
+     * @param catalog The catalog of the current item registry, as returned by {@link InvTweaksItemCatalog#getInstance}
+     *                once for the whole load
+     */
+    public void registerClass(@NotNull InvTweaksItemCatalog catalog, String category, String name, String className, NBTTagCompound extraData, int order, @NotNull InvTweaksItemTreePath path) {
+        long start = System.nanoTime();
+        for(ItemStack stack : catalog.getStacks(className)) {
             Item item = stack.getItem();
-            boolean isClass = InstanceOfClassNameKind(item, className);
-            if(isClass) {
-                boolean doIt = true;
-                if(extraData != null) {
-                    if(doIt && extraData.hasKey("toolclass")) {
-                        String tclass = extraData.getString("toolclass");
-                        //We don't want the set, we want the one we will use during comparisons.
-                        //An empty toolclass will match non-tools.                        
-                        doIt = tclass.equals(InvTweaks.getToolClass(stack, item));
-                    }
-                    if(doIt && extraData.hasKey("armortype") && item instanceof ItemArmor) {
-                        ItemArmor armor = (ItemArmor) item;
-                        String keyArmorType = extraData.getString("armortype");
-                        String itemArmorType = armor.armorType.getName().toLowerCase();
-                        doIt = (keyArmorType.equals(itemArmorType));
-                        armor = null;
-                    }
-                    if(doIt && extraData.hasKey("isshield")) {
-                        doIt = item.isShield(stack, null);
-                    }
+            boolean doIt = true;
+            if(extraData != null) {
+                if(doIt && extraData.hasKey("toolclass")) {
+                    String tclass = extraData.getString("toolclass");
+                    //We don't want the set, we want the one we will use during comparisons.
+                    //An empty toolclass will match non-tools.                        
+                    doIt = tclass.equals(InvTweaks.getToolClass(stack, item));
                 }
-                //Checks out, add it to the tree:
-                if(doIt) {
-                    int dmg = item.isDamageable() ? InvTweaksConst.DAMAGE_WILDCARD : stack.getItemDamage();
-                    addItem(category, new InvTweaksItemTreeItem(name, item.getRegistryName().toString(), dmg, null, order, path));
+                if(doIt && extraData.hasKey("armortype") && item instanceof ItemArmor) {
+                    ItemArmor armor = (ItemArmor) item;
+                    String keyArmorType = extraData.getString("armortype");
+                    String itemArmorType = armor.armorType.getName().toLowerCase();
+                    doIt = (keyArmorType.equals(itemArmorType));
+                    armor = null;
                 }
+                if(doIt && extraData.hasKey("isshield")) {
+                    doIt = item.isShield(stack, null);
+                }
+            }
+            //Checks out, add it to the tree:
+            if(doIt) {
+                int dmg = item.isDamageable() ? InvTweaksConst.DAMAGE_WILDCARD : stack.getItemDamage();
+                addItem(category, new InvTweaksItemTreeItem(name, item.getRegistryName().toString(), dmg, null, order, path));
+                stats.addClassEntry();
             }
         }
+        stats.addTime(InvTweaksItemTreeStats.Phase.CLASS_SCAN, System.nanoTime() - start);
     }
 
-    private void populateGameItems() {
-        for(Map.Entry<ResourceLocation, Item> entry : ForgeRegistries.ITEMS.getEntries()) {
-            //getDataForItemSubtypes(itemDump, entry.getValue(), entry.getKey(), includeToolClass, dumpNBT);
-            Item item = entry.getValue();
+    public void endFileRead() {
+        flushPendingOres();
 
-            if(item.getHasSubtypes()) {
-                for(CreativeTabs tab : item.getCreativeTabs()) {
-                    if(tab != null) {
-                        NonNullList<ItemStack> stacks = NonNullList.<ItemStack>create();
-                        item.getSubItems(tab, stacks);
+        // Publish the index of the whole batch, including the pending ores, rather than building it on the first lookup
+        publishIndex();
 
-                        for(ItemStack stack : stacks) {
-                            allGameItems.add(stack);
-                            // FIXME: Ignore identical duplicate entries from different tabs...
-                            //addData(itemDump, item, rl, true, includeToolClass, dumpNBT, stack);
-                        }
-                    }
+        //Remember where the last entry was placed in the tree for the API to leave these unsorted.
+        lastTreeOrder = highestOrder.get();
+    }
+
+    /**
+     * An index, with the changes made to the tree since it was built. Lookups check both, until the next index is
+     * published with the changes and replaces the whole object at once.
+     */
+    private static class Published {
+        @NotNull
+        final InvTweaksItemTreeIndex index;
+        /**
+         * Items added since the index was built, by ID and by name. The lists are replaced rather than modified.
+         */
+        @NotNull
+        final Map<String, List<IItemTreeItem>> addedById = new ConcurrentHashMap<>();
+        @NotNull
+        final Map<String, List<IItemTreeItem>> addedByName = new ConcurrentHashMap<>();
+        /**
+         * Categories of the added items, as bitsets over category indices
+         */
+        @NotNull
+        final Map<IItemTreeItem, BitSet> addedAncestors = Collections.synchronizedMap(new IdentityHashMap<>());
+        /**
+         * Game items having added tree items, so stack lookups only build the ID string for them
+         */
+        @NotNull
+        final Set<Item> addedItemRefs = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        @NotNull
+        final Map<String, IItemTreeCategory> addedCategories = new ConcurrentHashMap<>();
+
+        Published(@NotNull InvTweaksItemTreeIndex index_) {
+            index = index_;
+        }
+
+        boolean hasChanges() {
+            return !addedByName.isEmpty() || !addedCategories.isEmpty();
+        }
+
+        /**
+         * Called under the tree lock
+         */
+        void addItem(@NotNull IItemTreeItem item, @Nullable BitSet ancestors) {
+            if(ancestors != null) {
+                addedAncestors.put(item, ancestors);
+            }
+            if(item.getId() != null) {
+                addedById.merge(item.getId(), Collections.singletonList(item), Published::concat);
+                @Nullable Item itemRef = getRegisteredItem(item.getId());
+                if(itemRef != null) {
+                    addedItemRefs.add(itemRef);
                 }
-            } else {
-                allGameItems.add(item.getDefaultInstance());
-                //addData(itemDump, item, rl, false, includeToolClass, dumpNBT, new ItemStack(item, 1, 0));
+            }
+            if(item.getName() != null) {
+                addedByName.merge(item.getName(), Collections.singletonList(item), Published::concat);
             }
         }
-    }
 
-    private boolean InstanceOfClassNameKind(Object o, String className) {
-        Class testClass = o.getClass();
-        while(testClass != null) {
-            if(testClass.getName().toLowerCase().endsWith(className)) { return true; }
-            //The secret sauce:
-            testClass = testClass.getSuperclass();
+        @NotNull
+        private static List<IItemTreeItem> concat(@NotNull List<IItemTreeItem> items, @NotNull List<IItemTreeItem> addedItems) {
+            @NotNull List<IItemTreeItem> allItems = new ArrayList<>(items.size() + addedItems.size());
+            allItems.addAll(items);
+            allItems.addAll(addedItems);
+            return Collections.unmodifiableList(allItems);
         }
-        return false;
-    }
 
-    public void endFileRead() {
-        //We are done with this, let's release the memory.
-        allGameItems.clear();
+        @Nullable
+        List<IItemTreeItem> getAddedItems(@NotNull Map<String, List<IItemTreeItem>> added, @Nullable String key) {
+            return (key != null && !added.isEmpty()) ? added.get(key) : null;
+        }
 
-        //Remember where the last entry was placed in the tree for the API to leave these unsorted.
-        lastTreeOrder = highestOrder;
+        /**
+         * Same as {@link InvTweaksItemTreeIndex#isInCategory}, for the added items
+         */
+        boolean isInCategory(int categoryIndex, @NotNull IItemTreeItem item) {
+            @Nullable List<IItemTreeItem> items = getAddedItems(addedById, item.getId());
+            if(items != null) {
+                for(@NotNull IItemTreeItem addedItem : items) {
+                    BitSet ancestors = addedAncestors.get(addedItem);
+                    if(ancestors != null && ancestors.get(categoryIndex) && addedItem.equals(item)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Estimated heap of the items of an index and of their paths
+     */
+    private static class PathFootprint {
+        /**
+         * Estimated shallow size of an item, with compressed references
+         */
+        private static final int ITEM_SIZE = 56;
+
+        int itemCount = 0;
+        int nodeCount = 0;
+        long itemBytes = 0;
+        long nodeBytes = 0;
+        long stringBytes = 0;
+
+        PathFootprint(@NotNull InvTweaksItemTreeIndex index) {
+            @NotNull Set<InvTweaksItemTreePath> nodes = Collections.newSetFromMap(new IdentityHashMap<>());
+            for(@NotNull List<IItemTreeItem> items : index.itemsById.values()) {
+                for(@NotNull IItemTreeItem item : items) {
+                    itemCount++;
+                    itemBytes += ITEM_SIZE + InvTweaksItemTreePath.getEstimatedStringSize(item.getName().length());
+                    if(item instanceof InvTweaksItemTreeItem) {
+                        @NotNull InvTweaksItemTreePath path = ((InvTweaksItemTreeItem) item).getPathNode();
+                        stringBytes += InvTweaksItemTreePath.getEstimatedStringSize(path.length());
+                        for(@Nullable InvTweaksItemTreePath node = path; node != null && nodes.add(node); node = node.getParent()) {
+                            nodeBytes += node.getEstimatedSize();
+                        }
+                    } else {
+                        long size = InvTweaksItemTreePath.getEstimatedStringSize(item.getPath().length());
+                        stringBytes += size;
+                        nodeBytes += size;
+                    }
+                }
+            }
+            nodeCount = nodes.size();
+        }
     }
 
     private static class OreDictInfo {
@@ -429,14 +1005,28 @@ public class InvTweaksItemTree implements IItemTree {
         String name;
         String oreName;
         int order;
-        String orePath;
+        InvTweaksItemTreePath orePath;
+        int sequence;
 
-        OreDictInfo(String category_, String name_, String oreName_, int order_, String orePath_) {
+        OreDictInfo(String category_, String name_, String oreName_, int order_, InvTweaksItemTreePath orePath_, int sequence_) {
             category = category_;
             name = name_;
             oreName = oreName_;
             order = order_;
             orePath = orePath_;
+            sequence = sequence_;
+        }
+    }
+
+    private static class PendingOre {
+        String oreName;
+        ItemStack ore;
+        int sequence;
+
+        PendingOre(String oreName_, ItemStack ore_, int sequence_) {
+            oreName = oreName_;
+            ore = ore_;
+            sequence = sequence_;
         }
     }
 }
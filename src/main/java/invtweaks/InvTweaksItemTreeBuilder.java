@@ -17,51 +17,109 @@ import javax.xml.transform.stream.StreamResult;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class InvTweaksItemTreeBuilder {
 
     private static final Logger log = InvTweaks.log;
+    /**
+     * Tree files parsed by previous builds, to only parse again the modified ones. The documents are never modified,
+     * the base one is copied before merging. DOM documents aren't thread-safe, even for reads: they are only read by
+     * {@link #buildMergedTree}, which runs one build at a time.
+     */
+    private static final Map<File, ParsedTree> parsedTrees = new HashMap<>();
+    /**
+     * Parses the partial trees, shared by all builds. Its threads stop once idle.
+     */
+    private static final ThreadPoolExecutor parsers;
+
+    static {
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), InvTweaksConst.MAX_TREE_PARSER_THREADS);
+        parsers = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "InvTweaks tree parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        parsers.allowCoreThreadTimeOut(true);
+    }
     private DocumentBuilder docBuilder;
     private Document newDoc;
 
     public InvTweaksItemTreeBuilder(@NotNull File file) throws ParserConfigurationException, SAXException, IOException {
         docBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-        newDoc = docBuilder.parse(file);
+        newDoc = (Document) parseCached(file, docBuilder).cloneNode(true);
     }
 
-    public static boolean buildNewTree() {
+    /**
+     * Merges the partial tree files into the base tree.
+     *
+     * @return The merged tree, or null if there is nothing to merge or it failed
+     */
+    @Nullable
+    public static synchronized Document buildMergedTree() {
 
         //If we don't have the folder, then we don't want to rebuild from the parts.
-        if(!InvTweaksConst.INVTWEAKS_TREES_DIR.exists()) { return false; }
+        if(!InvTweaksConst.INVTWEAKS_TREES_DIR.exists()) { return null; }
 
         //Try to get our root tree.
         File base = new File(InvTweaksConst.INVTWEAKS_TREES_DIR, "minecraft.tree");
         if(!base.exists()) { base = InvTweaksConst.CONFIG_TREE_FILE; }
 
         //There just isn't any hope left.
-        if(!base.exists()) { return false; }
+        if(!base.exists()) { return null; }
 
         try {
             log.info("Merging tree files.");
             InvTweaksItemTreeBuilder newTree = new InvTweaksItemTreeBuilder(base);
 
-            File[] treeFiles = InvTweaksConst.INVTWEAKS_CONFIG_DIR.listFiles();
+            File[] treeFiles = InvTweaksConst.INVTWEAKS_TREES_DIR.listFiles();
 
-            for(File tree : treeFiles) {
-                //Make sure it is the type of file we want.
-                if(tree.getName().endsWith(".tree")) {
-                    try {
-                        //don't re-load our base.
-                        if(!tree.equals(base)) {
-                            newTree.add(tree);
-                        }
-                    } catch(Exception e) {
-                        log.error("Unable to process partial Tree: " + tree.getName() + " " + e.getMessage());
-                    }
+            List<File> partialTrees = new ArrayList<>();
+            for(File tree : (treeFiles != null) ? treeFiles : new File[0]) {
+                //Make sure it is the type of file we want, and don't re-load our base.
+                if(tree.getName().endsWith(".tree") && !tree.equals(base)) {
+                    partialTrees.add(tree);
+                }
+            }
+
+            //Forget the files that are gone.
+            synchronized(parsedTrees) {
+                parsedTrees.keySet().removeIf(file -> !file.equals(base) && !partialTrees.contains(file));
+            }
+
+            //Parsing is independent for each file, only the merge has to happen in order.
+            List<Future<Document>> partialDocs = parseAll(partialTrees);
+            for(int i = 0; i < partialTrees.size(); i++) {
+                try {
+                    newTree.add(partialDocs.get(i).get());
+                } catch(ExecutionException e) {
+                    log.error("Unable to process partial Tree: " + partialTrees.get(i).getName() + " " + e.getCause().getMessage());
+                } catch(Exception e) {
+                    log.error("Unable to process partial Tree: " + partialTrees.get(i).getName() + " " + e.getMessage());
                 }
             }
 
+            log.info("Merged tree files.");
+            return newTree.newDoc;
+
+        } catch(Exception e) {
+            log.error("Fail Building New Tree: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Saves the merged tree for debugging purposes, it isn't read back by the mod.
+     */
+    public static void exportMergedTree(@NotNull Document mergedTree) {
+        try {
             Transformer transformer = TransformerFactory.newInstance().newTransformer();
             transformer.setOutputProperty(OutputKeys.INDENT, "yes");
             transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
@@ -78,16 +136,51 @@ public class InvTweaksItemTreeBuilder {
                 log.info("Saving merged tree in 'trees' folder.");
             }
             Result output = new StreamResult(treeFile);
-            Source input = new DOMSource(newTree.newDoc);
+            Source input = new DOMSource(mergedTree);
 
             transformer.transform(input, output);
-            log.info("Merged tree files.");
-            return true;
-
         } catch(Exception e) {
-            log.error("Fail Building New Tree: " + e.getMessage());
-            return false;
+            log.error("Fail Exporting Merged Tree: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parses the files concurrently, each with its own builder as they are not thread-safe.
+     */
+    private static List<Future<Document>> parseAll(@NotNull List<File> files) {
+        List<Future<Document>> docs = new ArrayList<>(files.size());
+        if(files.isEmpty()) {
+            return docs;
+        }
+
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        for(File file : files) {
+            docs.add(parsers.submit(() -> {
+                DocumentBuilder builder;
+                synchronized(factory) {
+                    builder = factory.newDocumentBuilder();
+                }
+                return parseCached(file, builder);
+            }));
         }
+        return docs;
+    }
+
+    private static Document parseCached(@NotNull File file, @NotNull DocumentBuilder builder) throws SAXException, IOException {
+        long lastModified = file.lastModified();
+        long length = file.length();
+        synchronized(parsedTrees) {
+            ParsedTree parsed = parsedTrees.get(file);
+            if(parsed != null && parsed.lastModified == lastModified && parsed.length == length) {
+                return parsed.document;
+            }
+        }
+
+        Document document = builder.parse(file);
+        synchronized(parsedTrees) {
+            parsedTrees.put(file, new ParsedTree(document, lastModified, length));
+        }
+        return document;
     }
 
     public static List<Element> getChildrenByTagName(Element parent, String name) {
@@ -130,7 +223,10 @@ public class InvTweaksItemTreeBuilder {
     }
 
     public void add(@NotNull File file) throws ParserConfigurationException, SAXException, IOException {
-        Document otherDoc = docBuilder.parse(file);
+        add(docBuilder.parse(file));
+    }
+
+    public void add(@NotNull Document otherDoc) {
         Element newElement = newDoc.getDocumentElement();
         Element otherElement = otherDoc.getDocumentElement();
         combine(newElement, otherElement);
@@ -200,4 +296,16 @@ public class InvTweaksItemTreeBuilder {
         }
     }
 
+    private static class ParsedTree {
+        final Document document;
+        final long lastModified;
+        final long length;
+
+        ParsedTree(Document document_, long lastModified_, long length_) {
+            document = document_;
+            lastModified = lastModified_;
+            length = length_;
+        }
+    }
+
 }
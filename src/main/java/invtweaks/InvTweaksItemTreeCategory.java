@@ -4,6 +4,7 @@ package invtweaks;
 import invtweaks.api.IItemTreeCategory;
 import invtweaks.api.IItemTreeItem;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
 
@@ -18,13 +19,29 @@ public class InvTweaksItemTreeCategory implements IItemTreeCategory {
     private final List<IItemTreeCategory> subCategories = new ArrayList<>();
     private String name;
     private int order = -1;
+    /**
+     * The tree this category is registered in, which holds the compiled membership.
+     */
+    @Nullable
+    private InvTweaksItemTree tree;
 
     public InvTweaksItemTreeCategory(String name_) {
         name = name_;
     }
 
+    void setTree(@Nullable InvTweaksItemTree tree_) {
+        tree = tree_;
+    }
+
     @Override
     public boolean contains(@NotNull IItemTreeItem item) {
+        if(tree != null) {
+            int index = tree.getCategoryIndex(this);
+            if(index != -1) {
+                return tree.isInCategory(index, item);
+            }
+        }
+
         List<IItemTreeItem> storedItems = items.get(item.getId());
         if(storedItems != null) {
             for(@NotNull IItemTreeItem storedItem : storedItems) {
@@ -0,0 +1,506 @@
+package invtweaks;
+
+import invtweaks.api.IItemTreeCategory;
+import invtweaks.api.IItemTreeItem;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.ResourceLocation;
+import net.minecraftforge.fml.common.registry.ForgeRegistries;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable snapshot of the lookup structures of an item tree, as published to the readers. It is built from the tree
+ * once loaded, and again for the next batch of changes, so readers on any thread can query it without locking. Only
+ * the caches filled on lookups are modified, and they are concurrent.
+ */
+public class InvTweaksItemTreeIndex {
+
+    static final int ORDER_UNKNOWN = Integer.MIN_VALUE;
+
+    /**
+     * Estimated size of a hash map entry, with compressed references
+     */
+    private static final int MAP_ENTRY_SIZE = 36;
+    /**
+     * Longest order table row. Items with damage values beyond it are looked up through their entries instead.
+     */
+    private static final int MAX_ROW_LENGTH = 1024;
+
+    @Nullable
+    final String rootCategory;
+    /**
+     * All categories, stored by name
+     */
+    @NotNull
+    final Map<String, IItemTreeCategory> categories;
+    /**
+     * Items stored by ID. A same ID can hold several names.
+     */
+    @NotNull
+    final Map<String, List<IItemTreeItem>> itemsById;
+    /**
+     * Items stored by name. A same name can match several IDs.
+     */
+    @NotNull
+    final Map<String, List<IItemTreeItem>> itemsByName;
+    /**
+     * Items stored by item reference. Allows lookups from stacks without building registry name strings.
+     */
+    @NotNull
+    private final Map<Item, ItemIdentity> itemsByItem = new IdentityHashMap<>(500);
+    /**
+     * Order of the first matching tree item, by numeric item ID then damage value, for stacks without NBT. The last
+     * element of a row applies to all greater damage values, which only wildcard entries match. Rows are null for
+     * items missing from the tree or with too many damage values, and elements are ORDER_UNKNOWN where the full lookup
+     * is needed.
+     */
+    @NotNull
+    private int[][] orderTable = new int[0][];
+    /**
+     * Items (by numeric ID) having tree entries that depend on NBT, which need the full lookup for stacks with NBT
+     */
+    @NotNull
+    private final BitSet nbtQualifiedItems = new BitSet();
+    /**
+     * Category membership as bitsets over category indices: each tree item has the set of the categories it was added
+     * to, and of their ancestors.
+     */
+    @NotNull
+    private final Map<IItemTreeCategory, Integer> categoryIndices;
+    @NotNull
+    private final Map<IItemTreeItem, BitSet> itemAncestors;
+    /**
+     * Categories containing a given item, as answered by {@link IItemTreeCategory#contains}, by item ID (or "" for
+     * items without one). Only holds the items stored in the tree, so it is bounded by the tree size.
+     */
+    @NotNull
+    private final Map<String, Map<IItemTreeItem, BitSet>> itemMemberships = new ConcurrentHashMap<>(500);
+    /**
+     * Depth, path and order of every keyword (category or item name)
+     */
+    @NotNull
+    private final Map<String, KeywordInfo> keywords;
+    /**
+     * Category range entries, by the prefix of the names of their damage values. These names are resolved on lookup,
+     * rather than registered for every damage value.
+     */
+    @NotNull
+    private final Map<String, List<InvTweaksItemTreeItem>> rangesByPrefix = new HashMap<>();
+    /**
+     * Keyword information of the category range entries, by name prefix, in the order the keyword search finds them
+     */
+    @NotNull
+    private final Map<String, List<RangeKeyword>> rangeKeywords = new HashMap<>();
+
+    /**
+     * Copies the structures of a tree. They must not be modified during the call. Keyword paths are interned in the
+     * trie of pathRoot, the path root of the tree.
+     */
+    InvTweaksItemTreeIndex(@Nullable String rootCategory_, @NotNull Map<String, IItemTreeCategory> categories_,
+                           @NotNull Map<String, List<IItemTreeItem>> itemsById_, @NotNull Map<String, List<IItemTreeItem>> itemsByName_,
+                           @NotNull Map<IItemTreeCategory, Integer> categoryIndices_, @NotNull Map<IItemTreeItem, BitSet> itemAncestors_,
+                           @NotNull InvTweaksItemTreePath pathRoot) {
+        rootCategory = rootCategory_;
+        categories = Collections.unmodifiableMap(new HashMap<>(categories_));
+        itemsById = copyItems(itemsById_);
+        itemsByName = copyItems(itemsByName_);
+        categoryIndices = new IdentityHashMap<>(categoryIndices_);
+        itemAncestors = new IdentityHashMap<>(itemAncestors_);
+
+        for(Map.Entry<String, List<IItemTreeItem>> entry : itemsById.entrySet()) {
+            indexItem(entry.getKey(), entry.getValue());
+            for(@NotNull IItemTreeItem item : entry.getValue()) {
+                @Nullable String prefix = getDamageNamePrefix(item);
+                if(prefix != null) {
+                    rangesByPrefix.computeIfAbsent(prefix, p -> new ArrayList<>(1)).add((InvTweaksItemTreeItem) item);
+                }
+            }
+        }
+
+        @Nullable IItemTreeCategory root = getRootCategory();
+        if(root != null) {
+            @NotNull Map<String, KeywordInfo> table = new HashMap<>(itemsByName.size() + categories.size());
+            compileKeywords(table, root, 0, pathRoot.child(root.getName()));
+            keywords = Collections.unmodifiableMap(table);
+        } else {
+            keywords = Collections.emptyMap();
+        }
+    }
+
+    @NotNull
+    private static Map<String, List<IItemTreeItem>> copyItems(@NotNull Map<String, List<IItemTreeItem>> items) {
+        @NotNull Map<String, List<IItemTreeItem>> copy = new HashMap<>(items.size() * 4 / 3 + 1);
+        for(Map.Entry<String, List<IItemTreeItem>> entry : items.entrySet()) {
+            copy.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    @Nullable
+    private static String getDamageNamePrefix(@NotNull IItemTreeItem item) {
+        return (item instanceof InvTweaksItemTreeItem) ? ((InvTweaksItemTreeItem) item).getDamageNamePrefix() : null;
+    }
+
+    @Nullable
+    IItemTreeCategory getRootCategory() {
+        return categories.get(rootCategory);
+    }
+
+    /**
+     * @return The tree items with this name, including the views of category ranges named after one of their damage
+     * values, or null if there are none. The returned list must not be modified.
+     */
+    @Nullable
+    List<IItemTreeItem> getItems(@NotNull String name) {
+        @Nullable List<IItemTreeItem> items = itemsByName.get(name);
+        @Nullable DamageName damageName = DamageName.parse(name);
+        @Nullable List<InvTweaksItemTreeItem> ranges = (damageName != null) ? rangesByPrefix.get(damageName.prefix) : null;
+        if(ranges == null) {
+            return items;
+        }
+        @NotNull List<IItemTreeItem> result = (items != null) ? new ArrayList<>(items) : new ArrayList<>(1);
+        for(@NotNull InvTweaksItemTreeItem range : ranges) {
+            if(damageName.damage >= range.getDamage() && damageName.damage <= range.getDamageMax()) {
+                result.add(range.forDamage(damageName.damage));
+            }
+        }
+        return result.isEmpty() ? null : Collections.unmodifiableList(result);
+    }
+
+    boolean containsItem(@NotNull String name) {
+        return getItems(name) != null;
+    }
+
+    @Nullable
+    KeywordInfo getKeyword(String keyword) {
+        @Nullable KeywordInfo info = keywords.get(keyword);
+        if(info != null || keyword == null) {
+            return info;
+        }
+        @Nullable DamageName damageName = DamageName.parse(keyword);
+        @Nullable List<RangeKeyword> ranges = (damageName != null) ? rangeKeywords.get(damageName.prefix) : null;
+        if(ranges != null) {
+            for(@NotNull RangeKeyword range : ranges) {
+                if(damageName.damage >= range.range.getDamage() && damageName.damage <= range.range.getDamageMax()) {
+                    return new KeywordInfo(range.depth, range.categoryPath.child(keyword), range.range.getOrder(damageName.damage));
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Registers keywords in the same order as the recursive search finds them: the category name, then its items,
+     * then its subcategories. The first occurrence of a keyword wins. Category ranges are registered once, and the
+     * names of their damage values are resolved on lookup, after the other keywords.
+     */
+    private void compileKeywords(@NotNull Map<String, KeywordInfo> table, @NotNull IItemTreeCategory category, int depth, @NotNull InvTweaksItemTreePath path) {
+        table.computeIfAbsent(category.getName(), name -> new KeywordInfo(depth, path, getKeywordOrder(name, category)));
+        for(@NotNull List<IItemTreeItem> items : category.getItems()) {
+            for(@NotNull IItemTreeItem item : items) {
+                table.computeIfAbsent(item.getName(), name -> new KeywordInfo(depth + 1, path.child(name), getKeywordOrder(name, category)));
+                @Nullable String prefix = getDamageNamePrefix(item);
+                if(prefix != null) {
+                    rangeKeywords.computeIfAbsent(prefix, p -> new ArrayList<>(1)).add(new RangeKeyword((InvTweaksItemTreeItem) item, depth + 1, path));
+                }
+            }
+        }
+        for(@NotNull IItemTreeCategory subCategory : category.getSubCategories()) {
+            compileKeywords(table, subCategory, depth + 1, path.child(subCategory.getName()));
+        }
+    }
+
+    private int getKeywordOrder(String keyword, @NotNull IItemTreeCategory category) {
+        List<IItemTreeItem> items = itemsByName.get(keyword);
+        if(items != null && items.size() != 0) {
+            return items.get(0).getOrder();
+        } else if(keyword.equals(category.getName())) {
+            return category.getCategoryOrder();
+        } else {
+            return getRootCategory().findCategoryOrder(keyword);
+        }
+    }
+
+    /**
+     * Resolves an ID to its item, so stack lookups can skip the registry name, and fills its order table row.
+     */
+    private void indexItem(@Nullable String id, @NotNull List<IItemTreeItem> items) {
+        if(id == null) {
+            return;
+        }
+        // Only index IDs that the string lookup would match as well
+        @NotNull ResourceLocation location = new ResourceLocation(id);
+        if(!location.toString().equals(id) || !ForgeRegistries.ITEMS.containsKey(location)) {
+            return;
+        }
+        Item item = ForgeRegistries.ITEMS.getValue(location);
+        if(item != null) {
+            @NotNull ItemIdentity identity = new ItemIdentity(items);
+            itemsByItem.put(item, identity);
+            compileOrders(item, identity);
+        }
+    }
+
+    /**
+     * Fills the order table row of an item, for each damage value its entries mention and for any other value. Items
+     * mentioning large damage values get no row, and are answered by their entries.
+     */
+    private void compileOrders(@NotNull Item item, @NotNull ItemIdentity identity) {
+        int itemId = Item.getIdFromItem(item);
+        if(itemId < 0) {
+            return;
+        }
+        if(itemId >= orderTable.length) {
+            orderTable = Arrays.copyOf(orderTable, Math.max(itemId + 1, orderTable.length * 2));
+        }
+
+        int maxDamage = -1;
+        for(@NotNull IItemTreeItem treeItem : identity.items) {
+            if(treeItem.getDamage() == InvTweaksConst.DAMAGE_WILDCARD) {
+                // Matches every damage value, as the last element does
+                continue;
+            }
+            int itemMaxDamage = (treeItem instanceof InvTweaksItemTreeItem) ? ((InvTweaksItemTreeItem) treeItem).getDamageMax() : treeItem.getDamage();
+            maxDamage = Math.max(maxDamage, itemMaxDamage);
+        }
+        nbtQualifiedItems.set(itemId, identity.hasExtraData);
+        if(maxDamage + 2 > MAX_ROW_LENGTH) {
+            return;
+        }
+        @NotNull int[] row = new int[maxDamage + 2];
+        for(int damage = 0; damage < row.length; damage++) {
+            row[damage] = identity.getOrder(damage);
+        }
+        orderTable[itemId] = row;
+    }
+
+    /**
+     * @return The tree items matching an item and damage value, or null if the item isn't indexed. The returned list
+     * must not be modified.
+     */
+    @Nullable
+    List<IItemTreeItem> getItems(@NotNull Item item, int damage, @Nullable NBTTagCompound extra) {
+        @Nullable ItemIdentity identity = itemsByItem.get(item);
+        if(identity == null) {
+            return null;
+        }
+        List<IItemTreeItem> items = identity.getItems(damage);
+        if(extra != null && identity.hasExtraData && !items.isEmpty()) {
+            @NotNull List<IItemTreeItem> filteredItems = new ArrayList<>(items.size());
+            for(IItemTreeItem treeItem : items) {
+                if(InvTweaksItemTreeItem.matchesExtraData(treeItem, extra)) {
+                    filteredItems.add(treeItem);
+                }
+            }
+            items = filteredItems;
+        }
+        return items;
+    }
+
+    /**
+     * @return The order of the first tree item matching the stack, or ORDER_UNKNOWN if the full lookup is needed
+     */
+    int getItemOrder(@NotNull ItemStack stack) {
+        int itemId = Item.getIdFromItem(stack.getItem());
+        int damage = stack.getItemDamage();
+        if(itemId >= 0 && itemId < orderTable.length && damage >= 0 && !(stack.hasTagCompound() && nbtQualifiedItems.get(itemId))) {
+            @Nullable int[] row = orderTable[itemId];
+            if(row != null) {
+                return row[Math.min(damage, row.length - 1)];
+            }
+            @Nullable ItemIdentity identity = itemsByItem.get(stack.getItem());
+            if(identity != null) {
+                return identity.getOrder(damage);
+            }
+        }
+        return ORDER_UNKNOWN;
+    }
+
+    /**
+     * @return The estimated heap size of the lookup structures, without the items themselves
+     */
+    long getEstimatedSize() {
+        long size = 16 + 4L * orderTable.length;
+        for(@Nullable int[] row : orderTable) {
+            if(row != null) {
+                size += 16 + 4L * row.length;
+            }
+        }
+        size += nbtQualifiedItems.size() / 8;
+        // Map entries, and lists of 4-byte references
+        size += (long) MAP_ENTRY_SIZE * (itemsById.size() + itemsByName.size() + itemsByItem.size() + categories.size() + keywords.size() + itemAncestors.size());
+        for(@NotNull List<IItemTreeItem> items : itemsById.values()) {
+            size += 24 + 4L * items.size();
+        }
+        for(@NotNull List<IItemTreeItem> items : itemsByName.values()) {
+            size += 24 + 4L * items.size();
+        }
+        for(@NotNull BitSet ancestors : itemAncestors.values()) {
+            size += 40 + ancestors.size() / 8;
+        }
+        return size;
+    }
+
+    /**
+     * @return The category index used by membership bitsets, or -1 if the category isn't part of this tree.
+     */
+    int getCategoryIndex(@NotNull IItemTreeCategory category) {
+        Integer index = categoryIndices.get(category);
+        return (index != null) ? index : -1;
+    }
+
+    /**
+     * Same result as a recursive {@link IItemTreeCategory#contains} on the indexed category: true if the category or
+     * one of its subcategories stores an item that the given item equals.
+     */
+    boolean isInCategory(int categoryIndex, @NotNull IItemTreeItem item) {
+        @NotNull String key = (item.getId() != null) ? item.getId() : "";
+        Map<IItemTreeItem, BitSet> memberships = itemMemberships.get(key);
+        BitSet membership = (memberships != null) ? memberships.get(item) : null;
+        if(membership == null) {
+            membership = new BitSet();
+            List<IItemTreeItem> storedItems = itemsById.get(item.getId());
+            if(storedItems != null) {
+                for(@NotNull IItemTreeItem storedItem : storedItems) {
+                    BitSet ancestors = itemAncestors.get(storedItem);
+                    if(ancestors != null && storedItem.equals(item)) {
+                        membership.or(ancestors);
+                    }
+                }
+            }
+            // Don't cache items that aren't part of the tree (e.g. uncategorized ones or views of ranges, one per damage
+            // value) to keep the cache bounded. Views can't share the entry of their range: other items of the same ID
+            // may only match some of its damage values.
+            if(itemAncestors.containsKey(item)) {
+                itemMemberships.computeIfAbsent(key, id -> Collections.synchronizedMap(new IdentityHashMap<>())).put(item, membership);
+            }
+        }
+        return membership.get(categoryIndex);
+    }
+
+    /**
+     * A category range entry, with the depth and category path of the keywords of its damage values
+     */
+    private static class RangeKeyword {
+        @NotNull
+        final InvTweaksItemTreeItem range;
+        final int depth;
+        @NotNull
+        final InvTweaksItemTreePath categoryPath;
+
+        RangeKeyword(@NotNull InvTweaksItemTreeItem range_, int depth_, @NotNull InvTweaksItemTreePath categoryPath_) {
+            range = range_;
+            depth = depth_;
+            categoryPath = categoryPath_;
+        }
+    }
+
+    /**
+     * A name split into a prefix and the damage value it ends with, as the views of category ranges are named
+     */
+    private static class DamageName {
+        /**
+         * Digits of the largest damage value
+         */
+        private static final int MAX_DIGITS = 5;
+
+        @NotNull
+        final String prefix;
+        final int damage;
+
+        private DamageName(@NotNull String prefix_, int damage_) {
+            prefix = prefix_;
+            damage = damage_;
+        }
+
+        /**
+         * @return The prefix and damage value, or null if the name doesn't end with a damage value as written by
+         * {@link InvTweaksItemTreeItem#getDamageName}
+         */
+        @Nullable
+        static DamageName parse(@NotNull String name) {
+            int start = name.length();
+            while(start > 0 && isDigit(name.charAt(start - 1))) {
+                start--;
+            }
+            int digits = name.length() - start;
+            if(digits == 0 || digits > MAX_DIGITS || start == 0 || (digits > 1 && name.charAt(start) == '0')) {
+                return null;
+            }
+            return new DamageName(name.substring(0, start), Integer.parseInt(name.substring(start)));
+        }
+
+        private static boolean isDigit(char c) {
+            return c >= '0' && c <= '9';
+        }
+    }
+
+    static class KeywordInfo {
+        final int depth;
+        @NotNull
+        final InvTweaksItemTreePath path;
+        final int order;
+
+        KeywordInfo(int depth_, @NotNull InvTweaksItemTreePath path_, int order_) {
+            depth = depth_;
+            path = path_;
+            order = order_;
+        }
+    }
+
+    /**
+     * All tree items sharing an item reference, with the damage filtering cached.
+     */
+    private static class ItemIdentity {
+        @NotNull
+        final List<IItemTreeItem> items;
+        @NotNull
+        final Map<Integer, List<IItemTreeItem>> itemsByDamage = new ConcurrentHashMap<>();
+        @Nullable
+        final List<IItemTreeItem> wildcardItems;
+        final boolean hasExtraData;
+
+        ItemIdentity(@NotNull List<IItemTreeItem> items_) {
+            items = items_;
+            hasExtraData = items.stream().anyMatch(item -> item.getExtraData() != null);
+            // Without damage-specific entries, every damage value gets the same list
+            wildcardItems = items.stream().allMatch(item -> item.getDamage() == InvTweaksConst.DAMAGE_WILDCARD) ? items : null;
+        }
+
+        /**
+         * Same as the order of the first item of {@link #getItems}, without creating the list.
+         *
+         * @return The order, or ORDER_UNKNOWN if no item matches
+         */
+        int getOrder(int damage) {
+            for(@NotNull IItemTreeItem item : items) {
+                if(InvTweaksItemTreeItem.matchesDamage(item, damage)) {
+                    return (item instanceof InvTweaksItemTreeItem) ? ((InvTweaksItemTreeItem) item).getOrder(damage) : item.getOrder();
+                }
+            }
+            return ORDER_UNKNOWN;
+        }
+
+        @NotNull
+        List<IItemTreeItem> getItems(int damage) {
+            if(wildcardItems != null) {
+                return wildcardItems;
+            }
+            return itemsByDamage.computeIfAbsent(damage, d -> {
+                @NotNull List<IItemTreeItem> filteredItems = new ArrayList<>();
+                for(IItemTreeItem item : items) {
+                    if(InvTweaksItemTreeItem.matchesDamage(item, d)) {
+                        filteredItems.add(InvTweaksItemTreeItem.forDamage(item, d));
+                    }
+                }
+                return Collections.unmodifiableList(filteredItems);
+            });
+        }
+    }
+
+}
@@ -19,9 +19,37 @@ public class InvTweaksItemTreeItem implements IItemTreeItem {
     @Nullable
     private String id;
     private int damage;
+    /**
+     * Last damage value of a range entry, which stands for one item per damage value from damage to damageMax. Equal
+     * to damage for other items.
+     */
+    private int damageMax;
+    /**
+     * Order difference between two consecutive damage values of a range (0 if they all share the same order)
+     */
+    private int orderStep;
+    /**
+     * The range entry this item is the view of, for one of its damage values
+     */
+    @Nullable
+    private InvTweaksItemTreeItem range = null;
+    /**
+     * Name of the views of a category range, followed by their damage value. Null if the views share the range name.
+     */
+    @Nullable
+    private String damageNamePrefix = null;
     private NBTTagCompound extraData;
+    /**
+     * Fingerprint of extraData, null without extra data
+     */
+    @Nullable
+    private InvTweaksNBTFingerprint extraDataFingerprint;
     private int order;
-    private String path;
+    /**
+     * Interned node of the path, the string is built on request
+     */
+    @NotNull
+    private InvTweaksItemTreePath path;
 
     /**
      * @param name_   The item name
@@ -30,14 +58,56 @@ public class InvTweaksItemTreeItem implements IItemTreeItem {
      * @param order_  The item order while sorting
      */
     public InvTweaksItemTreeItem(String name_, String id_, int damage_, NBTTagCompound extraData_, int order_, String path_) {
+        this(name_, id_, damage_, extraData_, order_, InvTweaksItemTreePath.of(path_));
+    }
+
+    public InvTweaksItemTreeItem(String name_, String id_, int damage_, NBTTagCompound extraData_, int order_, @NotNull InvTweaksItemTreePath path_) {
+        this(name_, id_, damage_, damage_, extraData_, order_, 0, path_);
+    }
+
+    /**
+     * Creates a range entry, matching every damage value from damageMin_ to damageMax_.
+     *
+     * @param order_     The order of the first damage value
+     * @param orderStep_ The order difference between two consecutive damage values
+     */
+    public InvTweaksItemTreeItem(String name_, String id_, int damageMin_, int damageMax_, NBTTagCompound extraData_, int order_, int orderStep_, @NotNull InvTweaksItemTreePath path_) {
         name = name_;
         id = InvTweaksObfuscation.getNamespacedID(id_);
-        damage = damage_;
+        damage = damageMin_;
+        damageMax = damageMax_;
         extraData = extraData_;
+        extraDataFingerprint = (extraData_ != null) ? InvTweaksNBTFingerprint.of(extraData_) : null;
         order = order_;
+        orderStep = orderStep_;
         path = path_;
     }
 
+    /**
+     * Same as the range constructor, naming each damage value after damageNamePrefix_, as categories with a damage
+     * range did when they had one item per damage value.
+     */
+    public InvTweaksItemTreeItem(String name_, String id_, int damageMin_, int damageMax_, NBTTagCompound extraData_, int order_, int orderStep_, @NotNull InvTweaksItemTreePath path_, @Nullable String damageNamePrefix_) {
+        this(name_, id_, damageMin_, damageMax_, extraData_, order_, orderStep_, path_);
+        damageNamePrefix = damageNamePrefix_;
+    }
+
+    /**
+     * Creates the view of a range entry for one of its damage values.
+     */
+    private InvTweaksItemTreeItem(@NotNull InvTweaksItemTreeItem range_, int damage_) {
+        name = range_.getDamageName(damage_);
+        id = range_.id;
+        damage = damage_;
+        damageMax = damage_;
+        extraData = range_.extraData;
+        extraDataFingerprint = range_.extraDataFingerprint;
+        order = range_.order + (damage_ - range_.damage) * range_.orderStep;
+        orderStep = 0;
+        path = range_.path;
+        range = range_;
+    }
+
     @Override
     public String getName() {
         return name;
@@ -54,6 +124,107 @@ public class InvTweaksItemTreeItem implements IItemTreeItem {
         return damage;
     }
 
+    public int getDamageMax() {
+        return damageMax;
+    }
+
+    public int getOrderStep() {
+        return orderStep;
+    }
+
+    @Nullable
+    public String getDamageNamePrefix() {
+        return damageNamePrefix;
+    }
+
+    /**
+     * @return The name of the view of the given damage value
+     */
+    public String getDamageName(int damage_) {
+        return (damageNamePrefix != null) ? damageNamePrefix + damage_ : name;
+    }
+
+    public boolean isRange() {
+        return damageMax != damage;
+    }
+
+    /**
+     * @return The range entry this item is a view of, or null if it isn't one
+     */
+    @Nullable
+    public InvTweaksItemTreeItem getRange() {
+        return range;
+    }
+
+    /**
+     * @return The order of the given damage value: same as the order of {@link #forDamage}, without creating the view
+     */
+    public int getOrder(int damage_) {
+        return (isRange() && damage_ >= damage && damage_ <= damageMax) ? order + (damage_ - damage) * orderStep : order;
+    }
+
+    /**
+     * @return The order of the last damage value of a range entry, or the item order otherwise
+     */
+    public int getLastOrder() {
+        return order + (damageMax - damage) * orderStep;
+    }
+
+    /**
+     * @return The entry to use for the given damage value: a view of a range entry with its own order, or this item
+     */
+    @NotNull
+    public InvTweaksItemTreeItem forDamage(int damage_) {
+        if(!isRange() || damage_ < damage || damage_ > damageMax) {
+            return this;
+        }
+        // Not cached: a range may have thousands of damage values, and views compare by value
+        return new InvTweaksItemTreeItem(this, damage_);
+    }
+
+    /**
+     * Same as {@link #forDamage(int)} for any tree item.
+     */
+    @NotNull
+    public static IItemTreeItem forDamage(@NotNull IItemTreeItem item, int damage) {
+        return (item instanceof InvTweaksItemTreeItem) ? ((InvTweaksItemTreeItem) item).forDamage(damage) : item;
+    }
+
+    /**
+     * @return true if the item is a wildcard, has this damage value, or is a range containing it
+     */
+    public static boolean matchesDamage(@NotNull IItemTreeItem item, int damage) {
+        if(item.getDamage() == InvTweaksConst.DAMAGE_WILDCARD || item.getDamage() == damage) {
+            return true;
+        }
+        return item instanceof InvTweaksItemTreeItem && damage > item.getDamage() && damage <= ((InvTweaksItemTreeItem) item).damageMax;
+    }
+
+    /**
+     * Same result as NBTUtil.areNBTEquals(getExtraData(), tag, true), rejecting most mismatches with the fingerprints.
+     *
+     * @param tag A stack tag
+     */
+    public boolean matchesExtraData(@Nullable NBTTagCompound tag) {
+        if(extraData == null) {
+            return true;
+        }
+        if(tag == null) {
+            return false;
+        }
+        return extraDataFingerprint.mayMatch(InvTweaksNBTFingerprint.forStack(tag)) && NBTUtil.areNBTEquals(extraData, tag, true);
+    }
+
+    /**
+     * Same as {@link #matchesExtraData} for any tree item.
+     */
+    public static boolean matchesExtraData(@NotNull IItemTreeItem item, @Nullable NBTTagCompound tag) {
+        if(item instanceof InvTweaksItemTreeItem) {
+            return ((InvTweaksItemTreeItem) item).matchesExtraData(tag);
+        }
+        return NBTUtil.areNBTEquals(item.getExtraData(), tag, true);
+    }
+
     @Override
     public NBTTagCompound getExtraData() {
         return extraData;
@@ -66,6 +237,11 @@ public class InvTweaksItemTreeItem implements IItemTreeItem {
 
     @Override
     public String getPath() {
+        return path.toString();
+    }
+
+    @NotNull
+    public InvTweaksItemTreePath getPathNode() {
         return path;
     }
 
@@ -78,7 +254,16 @@ public class InvTweaksItemTreeItem implements IItemTreeItem {
             return false;
         }
         @Nullable IItemTreeItem item = (IItemTreeItem) o;
-        return Objects.equals(id, item.getId()) && NBTUtil.areNBTEquals(extraData, item.getExtraData(), true) && (damage == InvTweaksConst.DAMAGE_WILDCARD || damage == item.getDamage());
+        if(!Objects.equals(id, item.getId()) || !matchesDamage(this, item.getDamage())) {
+            return false;
+        }
+        if(extraData != null && item instanceof InvTweaksItemTreeItem) {
+            @Nullable InvTweaksNBTFingerprint otherFingerprint = ((InvTweaksItemTreeItem) item).extraDataFingerprint;
+            if(otherFingerprint == null || !extraDataFingerprint.mayMatch(otherFingerprint)) {
+                return false;
+            }
+        }
+        return NBTUtil.areNBTEquals(extraData, item.getExtraData(), true);
     }
 
     public String toString() {
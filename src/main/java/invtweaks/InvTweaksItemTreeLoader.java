@@ -7,24 +7,34 @@ import net.minecraft.nbt.NBTTagCompound;
 import net.minecraftforge.common.MinecraftForge;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.xml.sax.Attributes;
-import org.xml.sax.SAXException;
-import org.xml.sax.SAXParseException;
-import org.xml.sax.helpers.DefaultHandler;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Loads the item tree by parsing the XML file.
+ * <p>
+ * Each instance holds the state of a single parse, so several trees can be built at the same time, on any thread. The
+ * static methods handle the tree used by the mod and the listeners waiting for it.
  *
  * @author Jimeo Wan
  */
-public class InvTweaksItemTreeLoader extends DefaultHandler {
+public class InvTweaksItemTreeLoader {
 
     public final static String ATTR_ID = "id";
     public final static String ATTR_DAMAGE = "damage";
@@ -38,70 +48,183 @@ public class InvTweaksItemTreeLoader extends DefaultHandler {
     public final static String ATTR_TREE_VERSION = "treeVersion";
     public final static String ATTR_TREE_ORDER = "treeOrder";
     private static final List<IItemTreeListener> onLoadListeners = new ArrayList<>();
-    private static InvTweaksItemTree tree;
+    /**
+     * The last tree loaded through {@link #load}, guarded by onLoadListeners.
+     */
     @Nullable
-    private static String treeVersion;
-    private static int itemOrder;
-    private static int mergeChildren;
-    private static LinkedList<String> categoryStack;
-    private static LinkedList<Boolean> mergeStack;
-    private static boolean treeLoaded = false;
-
-    private static void init() {
-        treeVersion = null;
-        tree = new InvTweaksItemTree();
-        itemOrder = 0;
-        mergeChildren = 0;
-        categoryStack = new LinkedList<>();
-        mergeStack = new LinkedList<>();
+    private static InvTweaksItemTree loadedTree = null;
+
+    @NotNull
+    private final InvTweaksItemTree tree = new InvTweaksItemTree();
+    @Nullable
+    private String treeVersion = null;
+    private int itemOrder = 0;
+    private int mergeChildren = 0;
+    @NotNull
+    private final LinkedList<String> categoryStack = new LinkedList<>();
+    /**
+     * Path of the last category of the stack
+     */
+    @NotNull
+    private InvTweaksItemTreePath categoryPath = tree.getPathRoot();
+    @NotNull
+    private final LinkedList<Boolean> mergeStack = new LinkedList<>();
+    /**
+     * Catalog resolving the class entries, checked against the item registry once per load
+     */
+    @Nullable
+    private InvTweaksItemCatalog catalog = null;
+
+    public static InvTweaksItemTree load(@NotNull File file) throws Exception {
+        return load(file, null, null);
     }
 
-    public synchronized static InvTweaksItemTree load(@NotNull File file) throws Exception {
-        init();
+    /**
+     * Loads the tree used by the mod, and notifies the listeners.
+     *
+     * @param snapshotKey If not null, the tree is restored from the snapshot file when its key matches, and a new
+     *                    snapshot is saved otherwise.
+     * @param mergedTree  If not null, provides the tree to load instead of the file. Only called when the snapshot
+     *                    can't be used, and the file is still loaded if it returns null.
+     */
+    public static InvTweaksItemTree load(@NotNull File file, @Nullable byte[] snapshotKey, @Nullable Supplier<Document> mergedTree) throws Exception {
+        return load(file, snapshotKey, mergedTree, new InvTweaksItemTreeStats());
+    }
+
+    /**
+     * Same as {@link #load(File, byte[], Supplier)}, with the timings and counters of the load, including the ones
+     * recorded by the merged tree supplier, added to the given stats. They are kept by the tree afterwards.
+     */
+    public static InvTweaksItemTree load(@NotNull File file, @Nullable byte[] snapshotKey, @Nullable Supplier<Document> mergedTree, @NotNull InvTweaksItemTreeStats stats) throws Exception {
+        @Nullable InvTweaksItemTree tree = null;
+        if(snapshotKey != null) {
+            tree = stats.time(InvTweaksItemTreeStats.Phase.SNAPSHOT, () -> InvTweaksItemTreeSnapshot.read(InvTweaksConst.TREE_SNAPSHOT_FILE, snapshotKey));
+        }
 
-        SAXParserFactory parserFactory = SAXParserFactory.newInstance();
-        SAXParser parser = parserFactory.newSAXParser();
-        parser.parse(file, new InvTweaksItemTreeLoader());
+        if(tree != null) {
+            InvTweaks.log.info("Loaded item tree from snapshot.");
+            tree.setStats(stats);
+            MinecraftForge.EVENT_BUS.register(tree);
+        } else {
+            @Nullable InvTweaksItemTreeSnapshot snapshot = (snapshotKey != null) ? new InvTweaksItemTreeSnapshot(snapshotKey) : null;
+            @NotNull InvTweaksItemTreeLoader loader = new InvTweaksItemTreeLoader();
+            loader.tree.setRecorder(snapshot);
+            loader.tree.setStats(stats);
+
+            // Ore registrations received while loading are queued by the tree, and applied once it is loaded
+            MinecraftForge.EVENT_BUS.register(loader.tree);
+            @Nullable Document mergedDoc = (mergedTree != null) ? mergedTree.get() : null;
+            long start = System.nanoTime();
+            try {
+                tree = (mergedDoc != null) ? loader.parse(mergedDoc) : loader.parse(file);
+                stats.addTime(InvTweaksItemTreeStats.Phase.PARSE, System.nanoTime() - start);
+            } catch(Exception e) {
+                MinecraftForge.EVENT_BUS.unregister(loader.tree);
+                throw e;
+            } finally {
+                loader.tree.setRecorder(null);
+            }
+
+            if(snapshot != null) {
+                snapshot.write(InvTweaksConst.TREE_SNAPSHOT_FILE);
+            }
+        }
+
+        if(InvTweaks.log.isDebugEnabled()) {
+            InvTweaks.log.debug(tree.getPathFootprintReport());
+        }
 
         // Tree loaded event
         synchronized(onLoadListeners) {
-            treeLoaded = true;
+            loadedTree = tree;
             for(@NotNull IItemTreeListener onLoadListener : onLoadListeners) {
                 onLoadListener.onTreeLoaded(tree);
             }
         }
 
-        MinecraftForge.EVENT_BUS.register(tree);
-
         return tree;
     }
 
-    public synchronized static boolean isValidVersion(@NotNull File file) throws Exception {
-        init();
-
+    public static boolean isValidVersion(@NotNull File file) throws Exception {
         if(file.exists()) {
-            treeVersion = null;
-            SAXParserFactory parserFactory = SAXParserFactory.newInstance();
-            SAXParser parser = parserFactory.newSAXParser();
-
-            VersionLoader loader = new VersionLoader();
-            parser.parse(file, loader);
-            return InvTweaksConst.TREE_VERSION.equals(loader.version);
+            @Nullable String version = null;
+            try(@NotNull InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+                XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(input);
+                try {
+                    while(version == null && reader.hasNext()) {
+                        if(reader.next() == XMLStreamConstants.START_ELEMENT) {
+                            version = reader.getAttributeValue(null, ATTR_TREE_VERSION);
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+            return InvTweaksConst.TREE_VERSION.equals(version);
         } else {
             return false;
         }
     }
 
-    public synchronized static void addOnLoadListener(@NotNull IItemTreeListener listener) {
-        onLoadListeners.add(listener);
-        if(treeLoaded) {
-            // Late event triggering
-            listener.onTreeLoaded(tree);
+    public static void addOnLoadListener(@NotNull IItemTreeListener listener) {
+        synchronized(onLoadListeners) {
+            onLoadListeners.add(listener);
+            if(loadedTree != null) {
+                // Late event triggering
+                listener.onTreeLoaded(loadedTree);
+            }
+        }
+    }
+
+    public static boolean removeOnLoadListener(IItemTreeListener listener) {
+        synchronized(onLoadListeners) {
+            return onLoadListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Builds a tree from a file, without making it the mod's tree.
+     */
+    @NotNull
+    public InvTweaksItemTree parse(@NotNull File file) throws IOException, XMLStreamException {
+        try(@NotNull InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(input);
+            try {
+                while(reader.hasNext()) {
+                    int event = reader.next();
+                    if(event == XMLStreamConstants.START_ELEMENT) {
+                        startElement(reader.getLocalName(), attribute -> reader.getAttributeValue(null, attribute));
+                    } else if(event == XMLStreamConstants.END_ELEMENT) {
+                        endElement(reader.getLocalName());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
         }
+        tree.endFileRead();
+        return tree;
     }
 
-    public synchronized static boolean removeOnLoadListener(IItemTreeListener listener) {
-        return onLoadListeners.remove(listener);
+    /**
+     * Builds a tree from an already parsed document, without making it the mod's tree.
+     */
+    @NotNull
+    public InvTweaksItemTree parse(@NotNull Document document) {
+        visit(document.getDocumentElement());
+        tree.endFileRead();
+        return tree;
+    }
+
+    private void visit(@NotNull Element element) {
+        // Missing attributes are empty strings in the DOM
+        startElement(element.getTagName(), attribute -> element.hasAttribute(attribute) ? element.getAttribute(attribute) : null);
+        for(Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if(child.getNodeType() == Node.ELEMENT_NODE) {
+                visit((Element) child);
+            }
+        }
+        endElement(element.getTagName());
     }
 
     private int getNextItemOrder(boolean lastOrder) {
@@ -109,16 +232,36 @@ public class InvTweaksItemTreeLoader extends DefaultHandler {
         return itemOrder++;
     }
 
-    @Override
-    public synchronized void startElement(String uri, String localName, String name, @NotNull Attributes attributes) throws SAXException {
+    /**
+     * Adds a damage range as a single entry. Its damage values get the same orders as if they were added one by one.
+     */
+    private void addRange(String category, String name, String id, int damageMin, int damageMax, @Nullable NBTTagCompound extraData, boolean lastOrder, @NotNull InvTweaksItemTreePath path, @Nullable String damageNamePrefix) {
+        if(damageMax < damageMin) {
+            return;
+        }
+        int firstOrder = getNextItemOrder(lastOrder);
+        int orderStep = 0;
+        if(damageMax > damageMin) {
+            orderStep = getNextItemOrder(lastOrder) - firstOrder;
+            // Skip the orders of the remaining damage values
+            itemOrder += orderStep * (damageMax - damageMin - 1);
+        }
+        tree.addItem(category, new InvTweaksItemTreeItem(name, id, damageMin, damageMax, extraData, firstOrder, orderStep, path, damageNamePrefix));
+        tree.getStats().addRangeEntry(damageMax - damageMin + 1);
+    }
+
+    /**
+     * @param attributes Returns the value of an attribute, or null if it is missing
+     */
+    private void startElement(@NotNull String name, @NotNull Function<String, String> attributes) {
 
-        String rangeDMinAttr = attributes.getValue(ATTR_RANGE_DMIN);
-        String newTreeVersion = attributes.getValue(ATTR_TREE_VERSION);
-        String oreDictNameAttr = attributes.getValue(ATTR_OREDICT_NAME);
-        String id = attributes.getValue(ATTR_ID);
-        String className = attributes.getValue(ATTR_CLASS);
-        String lastOrderValue = attributes.getValue(ATTR_LAST_ORDER);
-        String mergeChildrenValue = attributes.getValue(ATTR_MERGE_CHILDREN);
+        String rangeDMinAttr = attributes.apply(ATTR_RANGE_DMIN);
+        String newTreeVersion = attributes.apply(ATTR_TREE_VERSION);
+        String oreDictNameAttr = attributes.apply(ATTR_OREDICT_NAME);
+        String id = attributes.apply(ATTR_ID);
+        String className = attributes.apply(ATTR_CLASS);
+        String lastOrderValue = attributes.apply(ATTR_LAST_ORDER);
+        String mergeChildrenValue = attributes.apply(ATTR_MERGE_CHILDREN);
         lastOrderValue = lastOrderValue == null ? "" : lastOrderValue.toLowerCase();
         boolean lastOrder = (lastOrderValue.equals("1") || lastOrderValue.equals("true") || lastOrderValue.equals("yes") || lastOrderValue.equals("t") || lastOrderValue.equals("y"));
         mergeChildrenValue = mergeChildrenValue == null ? "" : mergeChildrenValue.toLowerCase();
@@ -134,7 +277,7 @@ public class InvTweaksItemTreeLoader extends DefaultHandler {
         // Item
         if(id != null) {
             int damage = InvTweaksConst.DAMAGE_WILDCARD;
-            String extraDataAttr = attributes.getValue(ATTR_DATA);
+            String extraDataAttr = attributes.apply(ATTR_DATA);
             @Nullable NBTTagCompound extraData = null;
             if(extraDataAttr != null) {
                 try {
@@ -143,14 +286,15 @@ public class InvTweaksItemTreeLoader extends DefaultHandler {
                     throw new RuntimeException("Data attribute failed for tree entry '" + name + "'", e);
                 }
             }
-            if(attributes.getValue(ATTR_DAMAGE) != null) {
-                damage = Integer.parseInt(attributes.getValue(ATTR_DAMAGE));
+            if(attributes.apply(ATTR_DAMAGE) != null) {
+                damage = Integer.parseInt(attributes.apply(ATTR_DAMAGE));
             }
-            tree.addItem(categoryStack.getLast(), new InvTweaksItemTreeItem(name, id, damage, extraData, getNextItemOrder(lastOrder), String.join("\\", categoryStack) + "\\" + name));
+            // Damage ranges (dmin, dmax) only apply to categories
+            tree.addItem(categoryStack.getLast(), new InvTweaksItemTreeItem(name, id, damage, extraData, getNextItemOrder(lastOrder), categoryPath.child(name)));
         } else if(oreDictNameAttr != null) {
-            tree.registerOre(categoryStack.getLast(), name, oreDictNameAttr, getNextItemOrder(lastOrder), String.join("\\", categoryStack) + "\\" + name);
+            tree.registerOre(categoryStack.getLast(), name, oreDictNameAttr, getNextItemOrder(lastOrder), categoryPath.child(name));
         } else if(className != null) {
-            String extraDataAttr = attributes.getValue(ATTR_DATA);
+            String extraDataAttr = attributes.apply(ATTR_DATA);
             @Nullable NBTTagCompound extraData = null;
             if(extraDataAttr != null) {
                 try {
@@ -159,7 +303,10 @@ public class InvTweaksItemTreeLoader extends DefaultHandler {
                     throw new RuntimeException("Data attribute failed for tree entry '" + name + "'", e);
                 }
             }
-            tree.registerClass(categoryStack.getLast(), name, className.toLowerCase(), extraData, getNextItemOrder(lastOrder), String.join("\\", categoryStack) + "\\" + name);
+            if(catalog == null) {
+                catalog = InvTweaksItemCatalog.getInstance();
+            }
+            tree.registerClass(catalog, categoryStack.getLast(), name, className.toLowerCase(), extraData, getNextItemOrder(lastOrder), categoryPath.child(name));
         } else {
             // Category
             if(categoryStack.isEmpty()) {
@@ -173,16 +320,18 @@ public class InvTweaksItemTreeLoader extends DefaultHandler {
             // Handle damage ranges
             if(rangeDMinAttr != null) {
                 int rangeDMin = Integer.parseInt(rangeDMinAttr);
-                int rangeDMax = Integer.parseInt(attributes.getValue(ATTR_RANGE_DMAX));
-                for(int damage = rangeDMin; damage <= rangeDMax; damage++) {
-                    tree.addItem(name, new InvTweaksItemTreeItem((name + id + "-" + damage), id, damage, null, getNextItemOrder(lastOrder), String.join("\\", categoryStack) + "\\" + name));
-                }
+                int rangeDMax = Integer.parseInt(attributes.apply(ATTR_RANGE_DMAX));
+                // Each damage value keeps the name it had as a separate item, so it can still be used as a keyword
+                @NotNull String damageNamePrefix = name + id + "-";
+                @NotNull String rangeName = (rangeDMin == rangeDMax) ? damageNamePrefix + rangeDMin : damageNamePrefix + rangeDMin + "-" + rangeDMax;
+                addRange(name, rangeName, id, rangeDMin, rangeDMax, null, lastOrder, categoryPath.child(name), damageNamePrefix);
             } else if(willMergeChildren) {
-                //Try to get a new ID for the children to use.  
+                //Try to get a new ID for the children to use.
                 //(If an ancestor already set the flag, this will do nothing.)
                 getNextItemOrder(lastOrder);
             }
             categoryStack.add(name);
+            categoryPath = categoryPath.child(name);
         }
 
         //This happens last so if this node got an ID and it was supposed to be new, it did.
@@ -190,46 +339,14 @@ public class InvTweaksItemTreeLoader extends DefaultHandler {
 
     }
 
-    @Override
-    public synchronized void endElement(String uri, String localName, @NotNull String name) throws SAXException {
+    private void endElement(@NotNull String name) {
         if(!categoryStack.isEmpty() && name.equals(categoryStack.getLast())) {
             categoryStack.removeLast();
+            categoryPath = (categoryPath.getParent() != null) ? categoryPath.getParent() : categoryPath;
         }
         if(!mergeStack.isEmpty()) {
             if(mergeStack.getLast() && mergeChildren > 0) { mergeChildren--; }
             mergeStack.removeLast();
         }
     }
-
-    @Override
-    public void endDocument() throws SAXException {
-        tree.endFileRead();
-    }
-
-    @Override
-    public void warning(SAXParseException e) throws SAXException {
-        InvTweaks.log.warn("Tree XML Warning: ", e);
-    }
-
-    @Override
-    public void error(SAXParseException e) throws SAXException {
-        InvTweaks.log.error("Tree XML Error: ", e);
-    }
-
-    @Override
-    public void fatalError(SAXParseException e) throws SAXException {
-        InvTweaks.log.fatal("Tree XML Fatal Error: ", e);
-    }
-
-    private static class VersionLoader extends DefaultHandler {
-        @Nullable
-        String version;
-
-        @Override
-        public synchronized void startElement(String uri, String localName, String name, @NotNull Attributes attributes) throws SAXException {
-            if(version == null) {
-                version = attributes.getValue(ATTR_TREE_VERSION);
-            }
-        }
-    }
 }
@@ -0,0 +1,178 @@
+package invtweaks;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A node of the interned trie of item tree paths. Items only keep a reference to the node of their path, so the many
+ * items sharing a category (e.g. from ore and class entries) share its storage. The backslash-separated string is
+ * only built when requested.
+ * <p>
+ * Each tree has a trie of its own, created with {@link #createRoot()}, so the nodes of a tree are collected with it.
+ */
+public class InvTweaksItemTreePath {
+
+    public static final char SEPARATOR = '\\';
+
+    /**
+     * Estimated shallow sizes, in bytes, with compressed references
+     */
+    private static final int NODE_SIZE = 32;
+    private static final int MAP_SIZE = 64;
+    private static final int MAP_ENTRY_SIZE = 36;
+
+    @Nullable
+    private final InvTweaksItemTreePath parent;
+    @NotNull
+    private final String name;
+    /**
+     * Length of the path string
+     */
+    private final int length;
+    /**
+     * Created with the first child, as most nodes are item leaves. Guarded by this node.
+     */
+    @Nullable
+    private Map<String, InvTweaksItemTreePath> children = null;
+
+    private InvTweaksItemTreePath(@Nullable InvTweaksItemTreePath parent_, @NotNull String name_) {
+        parent = parent_;
+        name = name_;
+        length = (parent_ == null || parent_.parent == null) ? name_.length() : parent_.length + 1 + name_.length();
+    }
+
+    /**
+     * @return The empty path, parent of the root category, of a new trie
+     */
+    @NotNull
+    public static InvTweaksItemTreePath createRoot() {
+        return new InvTweaksItemTreePath(null, "");
+    }
+
+    /**
+     * @return The node of a backslash-separated path, in a trie of its own, for items created outside of a tree
+     */
+    @NotNull
+    public static InvTweaksItemTreePath of(@Nullable String path) {
+        return createRoot().resolve(path);
+    }
+
+    /**
+     * @return The interned node of a backslash-separated path, relative to this node
+     */
+    @NotNull
+    public InvTweaksItemTreePath resolve(@Nullable String path) {
+        @NotNull InvTweaksItemTreePath node = this;
+        if(path == null || path.isEmpty()) {
+            return node;
+        }
+        int start = 0;
+        int end;
+        while((end = path.indexOf(SEPARATOR, start)) != -1) {
+            node = node.child(path.substring(start, end));
+            start = end + 1;
+        }
+        return node.child(path.substring(start));
+    }
+
+    /**
+     * @return The amount of nodes interned under this one
+     */
+    public int getNodeCount() {
+        @NotNull List<InvTweaksItemTreePath> nodes;
+        synchronized(this) {
+            if(children == null) {
+                return 0;
+            }
+            nodes = new ArrayList<>(children.values());
+        }
+        int count = nodes.size();
+        for(@NotNull InvTweaksItemTreePath node : nodes) {
+            count += node.getNodeCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return The interned node of this path followed by the given name
+     */
+    @NotNull
+    public InvTweaksItemTreePath child(@NotNull String childName) {
+        synchronized(this) {
+            if(children == null) {
+                children = new HashMap<>(4);
+            }
+            @Nullable InvTweaksItemTreePath child = children.get(childName);
+            if(child == null) {
+                child = new InvTweaksItemTreePath(this, childName);
+                children.put(childName, child);
+            }
+            return child;
+        }
+    }
+
+    @Nullable
+    public InvTweaksItemTreePath getParent() {
+        return parent;
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The length of the path string, without building it
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return The estimated heap size of this node alone, including its name and its entry in the parent
+     */
+    int getEstimatedSize() {
+        int size = NODE_SIZE + getEstimatedStringSize(name.length()) + MAP_ENTRY_SIZE;
+        synchronized(this) {
+            if(children != null) {
+                size += MAP_SIZE + 4 * Integer.highestOneBit(Math.max(children.size() * 2 - 1, 1));
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The estimated heap size of a string of the given length, as stored by Java 8
+     */
+    static int getEstimatedStringSize(int stringLength) {
+        return 24 + ((16 + 2 * stringLength + 7) & ~7);
+    }
+
+    /**
+     * Builds the path string. It isn't cached, to keep a single copy of each name.
+     */
+    @NotNull
+    @Override
+    public String toString() {
+        if(parent == null) {
+            return "";
+        }
+        @NotNull char[] chars = new char[length];
+        int end = length;
+        for(@Nullable InvTweaksItemTreePath node = this; node != null && node.parent != null; node = node.parent) {
+            int start = end - node.name.length();
+            node.name.getChars(0, node.name.length(), chars, start);
+            if(start > 0) {
+                chars[start - 1] = SEPARATOR;
+            }
+            end = start - 1;
+        }
+        return new String(chars);
+    }
+
+}
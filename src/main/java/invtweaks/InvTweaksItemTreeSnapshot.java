@@ -0,0 +1,286 @@
+package invtweaks;
+
+import invtweaks.api.IItemTreeItem;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.JsonToNBT;
+import net.minecraft.nbt.NBTException;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.ResourceLocation;
+import net.minecraftforge.fml.common.registry.ForgeRegistries;
+import net.minecraftforge.oredict.OreDictionary;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Binary snapshot of a loaded item tree. It records the changes made to the tree while the XML is parsed (with the
+ * class and OreDictionary entries already resolved), so they can be replayed on the next start without merging,
+ * parsing or querying the game registries.
+ * <p>
+ * The snapshot is keyed by a hash of the tree sources, the rules, the item registry and the OreDictionary, and is
+ * ignored as soon as any of them changes.
+ */
+public class InvTweaksItemTreeSnapshot {
+
+    private static final Logger log = InvTweaks.log;
+
+    private static final int MAGIC = 0x49545353; // "ITSS"
+    private static final int FORMAT_VERSION = 3;
+
+    private static final byte RECORD_ROOT = 1;
+    private static final byte RECORD_CATEGORY = 2;
+    private static final byte RECORD_ITEM = 3;
+    private static final byte RECORD_ORE = 4;
+
+    @NotNull
+    private final byte[] key;
+    @NotNull
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+    @NotNull
+    private final DataOutputStream records = new DataOutputStream(bytes);
+    private int recordCount = 0;
+
+    public InvTweaksItemTreeSnapshot(@NotNull byte[] key_) {
+        key = key_;
+    }
+
+    /**
+     * Computes the key a snapshot must have to be reused.
+     *
+     * @param files The tree sources and rules files
+     */
+    @NotNull
+    public static byte[] computeKey(@NotNull List<File> files) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch(NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        updateDigest(digest, Integer.toString(FORMAT_VERSION));
+        updateDigest(digest, InvTweaksConst.TREE_VERSION);
+
+        @NotNull List<File> sortedFiles = new ArrayList<>(files);
+        sortedFiles.sort(Comparator.comparing(File::getAbsolutePath));
+        for(@NotNull File file : sortedFiles) {
+            updateDigest(digest, file.getAbsolutePath());
+            if(file.exists()) {
+                digest.update(Files.readAllBytes(file.toPath()));
+            }
+        }
+
+        // Class entries depend on the registered items
+        for(Map.Entry<ResourceLocation, Item> entry : ForgeRegistries.ITEMS.getEntries()) {
+            updateDigest(digest, entry.getKey().toString());
+            updateDigest(digest, entry.getValue().getClass().getName());
+        }
+
+        // Ore entries depend on the dictionary contents
+        for(String oreName : OreDictionary.getOreNames()) {
+            updateDigest(digest, oreName);
+            for(@Nullable ItemStack ore : OreDictionary.getOres(oreName, false)) {
+                if(ore != null && !ore.isEmpty()) {
+                    updateDigest(digest, ore.getItem().getRegistryName() + "@" + ore.getItemDamage());
+                }
+            }
+        }
+
+        return digest.digest();
+    }
+
+    private static void updateDigest(@NotNull MessageDigest digest, @NotNull String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Rebuilds a tree from a snapshot file, read at once into a heap buffer rather than through a stream. It isn't
+     * memory-mapped, as a mapped file can't be replaced on Windows until the mapping is collected.
+     *
+     * @return The tree, or null if there is no valid snapshot for the given key
+     */
+    @Nullable
+    public static InvTweaksItemTree read(@NotNull File file, @NotNull byte[] key) {
+        if(!file.exists()) {
+            return null;
+        }
+        try {
+            @NotNull ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            if(buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            @NotNull byte[] fileKey = new byte[buffer.getInt()];
+            buffer.get(fileKey);
+            if(!Arrays.equals(fileKey, key)) {
+                return null;
+            }
+
+            @NotNull InvTweaksItemTree tree = new InvTweaksItemTree();
+            int count = buffer.getInt();
+            for(int i = 0; i < count; i++) {
+                byte type = buffer.get();
+                switch(type) {
+                    case RECORD_ROOT:
+                        tree.setRootCategory(new InvTweaksItemTreeCategory(getString(buffer)));
+                        break;
+                    case RECORD_CATEGORY: {
+                        String parent = getString(buffer);
+                        tree.addCategory(parent, new InvTweaksItemTreeCategory(getString(buffer)));
+                        break;
+                    }
+                    case RECORD_ITEM: {
+                        String category = getString(buffer);
+                        String name = getString(buffer);
+                        String id = getString(buffer);
+                        int damage = buffer.getInt();
+                        int damageMax = buffer.getInt();
+                        @Nullable String extra = getString(buffer);
+                        int order = buffer.getInt();
+                        int orderStep = buffer.getInt();
+                        String path = getString(buffer);
+                        @Nullable String damageNamePrefix = getString(buffer);
+                        @Nullable NBTTagCompound extraData = (extra != null) ? JsonToNBT.getTagFromJson(extra) : null;
+                        tree.addItem(category, new InvTweaksItemTreeItem(name, id, damage, damageMax, extraData, order, orderStep, tree.getPathRoot().resolve(path), damageNamePrefix));
+                        break;
+                    }
+                    case RECORD_ORE: {
+                        String category = getString(buffer);
+                        String name = getString(buffer);
+                        String oreName = getString(buffer);
+                        int order = buffer.getInt();
+                        String path = getString(buffer);
+                        tree.restoreOre(category, name, oreName, order, path);
+                        break;
+                    }
+                    default:
+                        log.warn("Item tree snapshot is corrupted, ignoring it");
+                        return null;
+                }
+            }
+            tree.endFileRead();
+            return tree;
+        } catch(IOException | BufferUnderflowException | NBTException | NullPointerException e) {
+            log.warn("Failed to read item tree snapshot: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Nullable
+    private static String getString(@NotNull ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if(length == -1) {
+            return null;
+        }
+        @NotNull byte[] value = new byte[length];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private void putString(@Nullable String value) throws IOException {
+        if(value == null) {
+            records.writeInt(-1);
+        } else {
+            @NotNull byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            records.writeInt(encoded.length);
+            records.write(encoded);
+        }
+    }
+
+    void recordRoot(String name) {
+        try {
+            records.writeByte(RECORD_ROOT);
+            putString(name);
+            recordCount++;
+        } catch(IOException e) {
+            // Can't happen with an in-memory stream
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void recordCategory(String parent, String name) {
+        try {
+            records.writeByte(RECORD_CATEGORY);
+            putString(parent);
+            putString(name);
+            recordCount++;
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void recordItem(String category, @NotNull IItemTreeItem item) {
+        try {
+            records.writeByte(RECORD_ITEM);
+            putString(category);
+            putString(item.getName());
+            putString(item.getId());
+            @Nullable InvTweaksItemTreeItem treeItem = (item instanceof InvTweaksItemTreeItem) ? (InvTweaksItemTreeItem) item : null;
+            records.writeInt(item.getDamage());
+            records.writeInt((treeItem != null) ? treeItem.getDamageMax() : item.getDamage());
+            putString((item.getExtraData() != null) ? item.getExtraData().toString() : null);
+            records.writeInt(item.getOrder());
+            records.writeInt((treeItem != null) ? treeItem.getOrderStep() : 0);
+            putString(item.getPath());
+            putString((treeItem != null) ? treeItem.getDamageNamePrefix() : null);
+            recordCount++;
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void recordOre(String category, String name, String oreName, int order, String path) {
+        try {
+            records.writeByte(RECORD_ORE);
+            putString(category);
+            putString(name);
+            putString(oreName);
+            records.writeInt(order);
+            putString(path);
+            recordCount++;
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Saves the recorded tree. The file is replaced at once so that a failed write can't leave a truncated snapshot.
+     */
+    public void write(@NotNull File file) {
+        // Trees may be loaded concurrently, which would otherwise share the temporary file
+        synchronized(InvTweaksItemTreeSnapshot.class) {
+            writeFile(file);
+        }
+    }
+
+    private void writeFile(@NotNull File file) {
+        @NotNull File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            try(@NotNull DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(FORMAT_VERSION);
+                output.writeInt(key.length);
+                output.write(key);
+                output.writeInt(recordCount);
+                records.flush();
+                bytes.writeTo(output);
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch(IOException e) {
+            log.warn("Failed to save item tree snapshot: " + e.getMessage());
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+package invtweaks;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Counters gathered while loading and using an item tree, for the diagnostics report. Lookups are counted by the tree
+ * readers on any thread, so all counters are thread-safe.
+ */
+public class InvTweaksItemTreeStats {
+
+    public enum Phase {
+        MERGE("DOM merge"),
+        EXPORT("XML write"),
+        SNAPSHOT("Snapshot read"),
+        PARSE("XML parse"),
+        CLASS_SCAN("Class scan"),
+        ORE_REGISTRATION("Ore registration");
+
+        @NotNull
+        private final String label;
+
+        Phase(@NotNull String label_) {
+            label = label_;
+        }
+
+        @NotNull
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    @NotNull
+    private final Map<Phase, AtomicLong> phaseNanos = new EnumMap<>(Phase.class);
+    @NotNull
+    private final LongAdder oreEntries = new LongAdder();
+    @NotNull
+    private final LongAdder classEntries = new LongAdder();
+    @NotNull
+    private final LongAdder rangeEntries = new LongAdder();
+    @NotNull
+    private final LongAdder rangeDamageValues = new LongAdder();
+    @NotNull
+    private final LongAdder lookupHits = new LongAdder();
+    @NotNull
+    private final LongAdder lookupMisses = new LongAdder();
+
+    public InvTweaksItemTreeStats() {
+        for(@NotNull Phase phase : Phase.values()) {
+            phaseNanos.put(phase, new AtomicLong());
+        }
+    }
+
+    /**
+     * Runs the task and adds its duration to the phase.
+     */
+    public <T> T time(@NotNull Phase phase, @NotNull Supplier<T> task) {
+        long start = System.nanoTime();
+        try {
+            return task.get();
+        } finally {
+            addTime(phase, System.nanoTime() - start);
+        }
+    }
+
+    public void addTime(@NotNull Phase phase, long nanos) {
+        phaseNanos.get(phase).addAndGet(nanos);
+    }
+
+    public long getTime(@NotNull Phase phase) {
+        return phaseNanos.get(phase).get();
+    }
+
+    public void addOreEntry() {
+        oreEntries.increment();
+    }
+
+    public void addClassEntry() {
+        classEntries.increment();
+    }
+
+    /**
+     * @param damageValues The amount of damage values covered by the range entry
+     */
+    public void addRangeEntry(int damageValues) {
+        rangeEntries.increment();
+        rangeDamageValues.add(damageValues);
+    }
+
+    /**
+     * Counts a lookup answered by the index (hit), or one that needed the full lookup (miss)
+     */
+    public void addLookup(boolean hit) {
+        (hit ? lookupHits : lookupMisses).increment();
+    }
+
+    public long getOreEntries() {
+        return oreEntries.sum();
+    }
+
+    public long getClassEntries() {
+        return classEntries.sum();
+    }
+
+    public long getRangeEntries() {
+        return rangeEntries.sum();
+    }
+
+    public long getRangeDamageValues() {
+        return rangeDamageValues.sum();
+    }
+
+    public long getLookupHits() {
+        return lookupHits.sum();
+    }
+
+    public long getLookupMisses() {
+        return lookupMisses.sum();
+    }
+
+}
@@ -0,0 +1,148 @@
+package invtweaks;
+
+import invtweaks.api.IItemTreeItem;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Stores the entries created on the fly for items that are missing from the item tree. They are kept apart from the
+ * tree itself and the least recently used ones are evicted once the capacity is reached, so that a long session can't
+ * grow the tree without bounds.
+ * <p>
+ * Entries are created by the tree readers, on any thread, so all methods are synchronized.
+ */
+public class InvTweaksItemTreeUncategorized {
+
+    private final int capacity;
+    @NotNull
+    private final Map<String, List<IItemTreeItem>> entries;
+    /**
+     * Amount of stored keys per item ID
+     */
+    @NotNull
+    private final Map<String, Integer> idCounts = new HashMap<>();
+    /**
+     * First order of the entries of each item ID seen, in order of first sight. Not evicted with the entries.
+     */
+    @NotNull
+    private final Map<String, Integer> idOrders = new HashMap<>();
+    private long nextIdOrder = 0;
+    private int createdCount = 0;
+    private int evictedCount = 0;
+
+    public InvTweaksItemTreeUncategorized(int capacity_) {
+        capacity = capacity_;
+        entries = new LinkedHashMap<String, List<IItemTreeItem>>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<IItemTreeItem>> eldest) {
+                if(size() > capacity) {
+                    evictedCount++;
+                    removeId(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param key The item ID, followed by the damage value unless the item is damageable
+     * @return The entries created for this key, or null if there are none (anymore)
+     */
+    @Nullable
+    public synchronized List<IItemTreeItem> get(@NotNull String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * @return true if entries are stored for this item ID, for any damage value
+     */
+    public synchronized boolean containsId(@NotNull String id) {
+        return idCounts.containsKey(id);
+    }
+
+    /**
+     * @param minOrder Lowest order to give to an item seen for the first time
+     * @return The first order of the entries of this item ID, leaving room for all damage values after it
+     */
+    public synchronized int getIdOrder(@NotNull String id, int minOrder) {
+        Integer order = idOrders.get(id);
+        if(order == null) {
+            long start = Math.max(nextIdOrder, minOrder);
+            nextIdOrder = start + InvTweaksConst.DAMAGE_WILDCARD + 1;
+            // Once out of orders, the last items share the last ones
+            order = (int) Math.min(start, Integer.MAX_VALUE - 1 - InvTweaksConst.DAMAGE_WILDCARD);
+            idOrders.put(id, order);
+        }
+        return order;
+    }
+
+    public synchronized void put(@NotNull String key, @NotNull List<IItemTreeItem> items) {
+        createdCount++;
+        @Nullable List<IItemTreeItem> previousItems = entries.put(key, items);
+        if(previousItems != null) {
+            removeId(previousItems);
+        }
+        if(!items.isEmpty() && items.get(0).getId() != null) {
+            idCounts.merge(items.get(0).getId(), 1, Integer::sum);
+        }
+    }
+
+    private void removeId(@NotNull List<IItemTreeItem> items) {
+        if(!items.isEmpty() && items.get(0).getId() != null) {
+            idCounts.computeIfPresent(items.get(0).getId(), (id, count) -> (count > 1) ? count - 1 : null);
+        }
+    }
+
+    /**
+     * @return The entries stored for this key, created at once if there are none
+     */
+    @NotNull
+    public synchronized List<IItemTreeItem> computeIfAbsent(@NotNull String key, @NotNull Function<String, List<IItemTreeItem>> factory) {
+        List<IItemTreeItem> items = entries.get(key);
+        if(items == null) {
+            items = factory.apply(key);
+            put(key, items);
+        }
+        return items;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        idCounts.clear();
+        idOrders.clear();
+        nextIdOrder = 0;
+    }
+
+    /**
+     * @return The amount of keys currently stored
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The amount of keys created since the tree was loaded, including evicted ones
+     */
+    public synchronized int getCreatedCount() {
+        return createdCount;
+    }
+
+    /**
+     * @return The amount of keys evicted since the tree was loaded
+     */
+    public synchronized int getEvictedCount() {
+        return evictedCount;
+    }
+
+}
@@ -0,0 +1,104 @@
+package invtweaks;
+
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTPrimitive;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagString;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Cheap summary of the top level of an NBT compound: a bit mask of its keys, and the hashes of its number and string
+ * values. Used to reject tree entries whose data can't match a tag before the recursive
+ * {@link net.minecraft.nbt.NBTUtil#areNBTEquals} compare.
+ */
+public class InvTweaksNBTFingerprint {
+
+    /**
+     * Fingerprints of stack tags, by tag reference, while a session is open on the thread
+     */
+    private static final ThreadLocal<Session> session = new ThreadLocal<>();
+
+    private final long keyMask;
+    @NotNull
+    private final Map<String, Integer> valueHashes = new HashMap<>();
+
+    private InvTweaksNBTFingerprint(@NotNull NBTTagCompound tag) {
+        long mask = 0;
+        for(String key : tag.getKeySet()) {
+            mask |= 1L << (key.hashCode() & 63);
+            NBTBase value = tag.getTag(key);
+            if(value instanceof NBTPrimitive || value instanceof NBTTagString) {
+                valueHashes.put(key, value.hashCode());
+            }
+        }
+        keyMask = mask;
+    }
+
+    @NotNull
+    public static InvTweaksNBTFingerprint of(@NotNull NBTTagCompound tag) {
+        return new InvTweaksNBTFingerprint(tag);
+    }
+
+    /**
+     * Same as {@link #of}, but reuses the fingerprint of the same tag while a session is open.
+     */
+    @NotNull
+    public static InvTweaksNBTFingerprint forStack(@NotNull NBTTagCompound tag) {
+        @Nullable Session current = session.get();
+        if(current == null) {
+            return of(tag);
+        }
+        return current.fingerprints.computeIfAbsent(tag, InvTweaksNBTFingerprint::new);
+    }
+
+    /**
+     * Caches stack fingerprints on the current thread until the session is closed. Stack tags must not be modified
+     * meanwhile. Sessions can be nested.
+     */
+    @NotNull
+    public static Session openSession() {
+        @Nullable Session current = session.get();
+        if(current == null) {
+            current = new Session();
+            session.set(current);
+        }
+        current.depth++;
+        return current;
+    }
+
+    /**
+     * @return false if a compound with this fingerprint can't be partially equal to one with the given fingerprint,
+     * i.e. one of its keys is missing there or has another number or string value. true means it may be.
+     */
+    public boolean mayMatch(@NotNull InvTweaksNBTFingerprint other) {
+        if((keyMask & ~other.keyMask) != 0) {
+            return false;
+        }
+        for(Map.Entry<String, Integer> entry : valueHashes.entrySet()) {
+            @Nullable Integer otherHash = other.valueHashes.get(entry.getKey());
+            if(otherHash == null || otherHash.intValue() != entry.getValue().intValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static class Session implements AutoCloseable {
+        @NotNull
+        private final Map<NBTTagCompound, InvTweaksNBTFingerprint> fingerprints = new IdentityHashMap<>();
+        private int depth = 0;
+
+        @Override
+        public void close() {
+            if(--depth == 0) {
+                session.remove();
+            }
+        }
+    }
+
+}
@@ -22,6 +22,8 @@
 
 package invtweaks.api;
 
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NBTTagCompound;
 
 import java.util.Collection;
@@ -52,6 +54,21 @@ public interface IItemTree {
 
     List<IItemTreeItem> getItems(String name);
 
+    /**
+     * By default, looks the item up by its registry name.
+     */
+    default List<IItemTreeItem> getItems(Item item, int damage, NBTTagCompound extra) {
+        return getItems(item.getRegistryName().toString(), damage, extra);
+    }
+
+    default List<IItemTreeItem> getItems(Item item, int damage) {
+        return getItems(item, damage, null);
+    }
+
+    default List<IItemTreeItem> getItems(ItemStack stack) {
+        return getItems(stack.getItem(), stack.getItemDamage(), stack.getTagCompound());
+    }
+
     IItemTreeItem getRandomItem(Random r);
 
     boolean containsItem(String name);
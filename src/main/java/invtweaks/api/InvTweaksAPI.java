@@ -26,6 +26,8 @@ import invtweaks.api.container.ContainerSection;
 import net.minecraft.item.ItemStack;
 
 import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Interface to access functions exposed by Inventory Tweaks
@@ -83,6 +85,71 @@ public interface InvTweaksAPI {
      */
     int compareItems(@Nonnull ItemStack i, @Nonnull ItemStack j, boolean onlyTreeSort);
 
+    /**
+     * Compare two items using the default (non-rule based) algorithm, with their tree orders
+     * already known from {@link #getItemOrders(List, boolean)}.
+     *
+     * @param i
+     * @param j
+     * @param orderI
+     * @param orderJ
+     * @param onlyTreeSort
+     * @return A value with a sign representing the relative order of the item stacks
+     */
+    default int compareItems(@Nonnull ItemStack i, @Nonnull ItemStack j, int orderI, int orderJ, boolean onlyTreeSort) {
+        return compareItems(i, j, onlyTreeSort);
+    }
+
+    /**
+     * Get the tree order of many items in one pass. Items sort by ascending order first, so the
+     * result can be used as a precomputed sort key, with compareItems only needed for equal orders.
+     * By default, all stacks get Integer.MAX_VALUE, as unknown items, so they are only sorted by compareItems.
+     *
+     * @param stacks
+     * @param onlyTreeSort If true, items not found in the tree get Integer.MAX_VALUE
+     * @return The order of each stack, at the same index
+     */
+    @Nonnull
+    default int[] getItemOrders(@Nonnull List<ItemStack> stacks, boolean onlyTreeSort) {
+        int[] orders = new int[stacks.size()];
+        Arrays.fill(orders, Integer.MAX_VALUE);
+        return orders;
+    }
+
+    @Nonnull
+    default int[] getItemOrders(@Nonnull ItemStack[] stacks, boolean onlyTreeSort) {
+        return getItemOrders(Arrays.asList(stacks), onlyTreeSort);
+    }
+
+    /**
+     * Sort items using the default (non-rule based) algorithm. Same result as sorting with
+     * compareItems, but each item is only looked up once.
+     *
+     * @param stacks       The list to sort, must be modifiable
+     * @param onlyTreeSort
+     */
+    default void sortItems(@Nonnull List<ItemStack> stacks, boolean onlyTreeSort) {
+        stacks.sort((i, j) -> compareItems(i, j, onlyTreeSort));
+    }
+
+    /**
+     * Test many items against a keyword (an item or category name of the item tree) in one pass.
+     * By default, no stack matches.
+     *
+     * @param stacks
+     * @param keyword
+     * @return Whether each stack matches, at the same index
+     */
+    @Nonnull
+    default boolean[] matchKeyword(@Nonnull List<ItemStack> stacks, @Nonnull String keyword) {
+        return new boolean[stacks.size()];
+    }
+
+    @Nonnull
+    default boolean[] matchKeyword(@Nonnull ItemStack[] stacks, @Nonnull String keyword) {
+        return matchKeyword(Arrays.asList(stacks), keyword);
+    }
+
     /**
      * Initiate a sort as if the player had clicked on a sorting button or pressed the sort key.
      */
@@ -75,6 +75,11 @@ public class ContainerSectionManager {
         return containerMgr.getItemStack(section, index);
     }
 
+    @NotNull
+    public ItemStack getHeldStack() {
+        return containerMgr.getHeldStack();
+    }
+
     public Container getContainer() {
         return containerMgr.getContainer();
     }
@@ -340,6 +340,12 @@ public class DirectContainerManager implements IContainerManager {
         }
     }
 
+    @NotNull
+    @Override
+    public ItemStack getHeldStack() {
+        return InvTweaks.getInstance().getHeldStack();
+    }
+
     @NotNull
     @Override
     public Container getContainer() {
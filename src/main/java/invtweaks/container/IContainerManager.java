@@ -127,6 +127,12 @@ public interface IContainerManager {
     @NotNull
     ItemStack getItemStack(ContainerSection section, int index);
 
+    /**
+     * @return The stack attached to the cursor, or an empty stack.
+     */
+    @NotNull
+    ItemStack getHeldStack();
+
     Container getContainer();
 
     void applyChanges();
@@ -1,12 +1,14 @@
 package invtweaks.container;
 
 import invtweaks.InvTweaks;
+import invtweaks.InvTweaksConst;
 import invtweaks.InvTweaksObfuscation;
 import invtweaks.api.container.ContainerSection;
 import invtweaks.forge.InvTweaksMod;
 import net.minecraft.inventory.Container;
 import net.minecraft.inventory.Slot;
 import net.minecraft.item.ItemStack;
+import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -16,17 +18,42 @@ import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+import static net.minecraft.inventory.ClickType.PICKUP;
+
+/**
+ * Works on a copy of the container: moves and clicks only change the copy, with the same results as on the real
+ * container. {@link #applyChanges} then compares the copy with the real container and makes the clicks needed to match
+ * it.
+ */
 public class MirroredContainerManager implements IContainerManager {
+
+    private static final Logger log = InvTweaks.log;
+
+    /**
+     * Bound on the clicks made by applyChanges for each slot, in case the real container doesn't behave as expected
+     */
+    private static final int MAX_CLICKS_PER_SLOT = 8;
+
+    /**
+     * Stacks of the slots, by position in the container slot list
+     */
     private ItemStack[] slotItems;
-    @Nullable
-    private ItemStack heldItem;
+    /**
+     * Stacks of the slots when they were last read from the real container
+     */
+    private ItemStack[] initialItems;
+    @NotNull
+    private ItemStack heldItem = ItemStack.EMPTY;
     @NotNull
-    @SuppressWarnings("MismatchedQueryAndUpdateOfCollection") // Partially implemented
     private List<ItemStack> droppedItems = new ArrayList<>();
     private Container container;
     private Map<ContainerSection, List<Integer>> itemRefs;
     @Nullable
     private Map<ContainerSection, List<Slot>> slotRefs;
+    /**
+     * Slots (and held stack) of the real container that didn't match the mirrored one after the last flush
+     */
+    private int mismatchCount = 0;
 
     public MirroredContainerManager(Container cont) {
         container = cont;
@@ -38,7 +65,6 @@ public class MirroredContainerManager implements IContainerManager {
 
         // TODO: Detect if there is a big enough unassigned section for inventory.
         List<Slot> slots = container.inventorySlots;
-        int size = slots.size();
 
         itemRefs = new HashMap<>();
         for(@NotNull Map.Entry<ContainerSection, List<Slot>> section : slotRefs.entrySet()) {
@@ -47,70 +73,204 @@ public class MirroredContainerManager implements IContainerManager {
             itemRefs.put(section.getKey(), slotIndices);
         }
 
+        reload();
+    }
+
+    /**
+     * Copies the real container again, dropping the changes not applied yet.
+     */
+    private void reload() {
+        List<Slot> slots = container.inventorySlots;
+        int size = slots.size();
         slotItems = new ItemStack[size];
+        initialItems = new ItemStack[size];
         for(int i = 0; i < size; ++i) {
             slotItems[i] = slots.get(i).getStack().copy();
+            initialItems[i] = slotItems[i].copy();
         }
 
-        heldItem = InvTweaks.getInstance().getHeldStack();
+        heldItem = InvTweaks.getInstance().getHeldStack().copy();
+        droppedItems.clear();
     }
 
     @Override
     public boolean move(ContainerSection srcSection, int srcIndex, ContainerSection destSection, int destIndex) {
         int srcSlotIdx = slotPositionToIndex(srcSection, srcIndex);
+        if(srcSlotIdx < 0) {
+            return false;
+        }
+        @NotNull ItemStack srcItem = slotItems[srcSlotIdx];
 
         if(destIndex == DROP_SLOT) {
-            droppedItems.add(slotItems[srcSlotIdx]);
-            slotItems[srcSlotIdx] = null;
+            if(srcItem.isEmpty()) {
+                return false;
+            }
+            droppedItems.add(srcItem);
+            slotItems[srcSlotIdx] = ItemStack.EMPTY;
+            return true;
         }
 
         int destSlotIdx = slotPositionToIndex(destSection, destIndex);
+        if(destSlotIdx < 0 || srcItem.isEmpty()) {
+            return false;
+        } else if(srcSlotIdx == destSlotIdx) {
+            return true;
+        }
 
-        @NotNull Slot srcSlot = getSlot(srcSection, srcIndex);
-        @NotNull Slot destSlot = getSlot(destSection, destIndex);
-
-        @NotNull ItemStack srcItem = slotItems[srcSlotIdx];
+        @NotNull Slot srcSlot = container.getSlot(srcSlotIdx);
+        @NotNull Slot destSlot = container.getSlot(destSlotIdx);
         @NotNull ItemStack destItem = slotItems[destSlotIdx];
 
-        if(srcItem != null && !destSlot.isItemValid(srcItem)) {
+        if(!destSlot.isItemValid(srcItem)) {
             return false;
         }
 
-        if(destItem != null && !srcSlot.isItemValid(destItem)) {
-            // TODO: Behavior says move dest to empty valid slot in this case.
-            return false;
+        if(destItem.isEmpty()) {
+            // The remains of an oversized stack go back to the source
+            int amount = Math.min(srcItem.getCount(), getStackLimit(destSlot, srcItem));
+            slotItems[destSlotIdx] = srcItem.splitStack(amount);
+            if(srcItem.isEmpty()) {
+                slotItems[srcSlotIdx] = ItemStack.EMPTY;
+            }
+        } else if(canMerge(srcItem, destItem)) {
+            int amount = Math.min(srcItem.getCount(), getStackLimit(destSlot, destItem) - destItem.getCount());
+            if(amount > 0) {
+                transfer(srcSlotIdx, destSlotIdx, amount);
+            }
+        } else {
+            if(!srcSlot.isItemValid(destItem) || destItem.getCount() > getStackLimit(srcSlot, destItem) || srcItem.getCount() > getStackLimit(destSlot, srcItem)) {
+                // TODO: Behavior says move dest to empty valid slot in this case.
+                return false;
+            }
+            slotItems[srcSlotIdx] = destItem;
+            slotItems[destSlotIdx] = srcItem;
         }
 
-        // TODO: Attempt to stack instead of always swapping?
-        slotItems[srcSlotIdx] = destItem;
-        slotItems[destSlotIdx] = srcItem;
-
         return true;
     }
 
     @Override
     public boolean moveSome(ContainerSection srcSection, int srcIndex, ContainerSection destSection, int destIndex, int amount) {
-        // TODO: Can't currently do partial movements
-        return false;
+        int srcSlotIdx = slotPositionToIndex(srcSection, srcIndex);
+        if(srcSlotIdx < 0) {
+            return false;
+        }
+        @NotNull ItemStack srcItem = slotItems[srcSlotIdx];
+        if(srcItem.isEmpty() || amount <= 0) {
+            return true;
+        }
+
+        if(destIndex == DROP_SLOT) {
+            droppedItems.add(srcItem.splitStack(Math.min(amount, srcItem.getCount())));
+            if(srcItem.isEmpty()) {
+                slotItems[srcSlotIdx] = ItemStack.EMPTY;
+            }
+            return true;
+        }
+
+        int destSlotIdx = slotPositionToIndex(destSection, destIndex);
+        if(destSlotIdx < 0) {
+            return false;
+        } else if(srcSlotIdx == destSlotIdx) {
+            return true;
+        }
+
+        @NotNull Slot destSlot = container.getSlot(destSlotIdx);
+        @NotNull ItemStack destItem = slotItems[destSlotIdx];
+        if(destItem.isEmpty()) {
+            if(!destSlot.isItemValid(srcItem)) {
+                return false;
+            }
+            slotItems[destSlotIdx] = srcItem.splitStack(Math.min(Math.min(amount, srcItem.getCount()), getStackLimit(destSlot, srcItem)));
+            if(srcItem.isEmpty()) {
+                slotItems[srcSlotIdx] = ItemStack.EMPTY;
+            }
+        } else if(canMerge(srcItem, destItem)) {
+            int movedAmount = Math.min(Math.min(amount, srcItem.getCount()), getStackLimit(destSlot, destItem) - destItem.getCount());
+            if(movedAmount > 0) {
+                transfer(srcSlotIdx, destSlotIdx, movedAmount);
+            }
+        } else {
+            return false;
+        }
+        return true;
     }
 
     @Override
     public boolean putHoldItemDown(ContainerSection destSection, int destIndex) {
-        int destSlotIdx = slotPositionToIndex(destSection, destIndex);
+        if(heldItem.isEmpty()) {
+            return true;
+        }
 
-        if(slotItems[destSlotIdx] != null) {
+        int destSlotIdx = slotPositionToIndex(destSection, destIndex);
+        if(destSlotIdx < 0 || !slotItems[destSlotIdx].isEmpty() || !container.getSlot(destSlotIdx).isItemValid(heldItem)) {
             return false;
         }
 
-        slotItems[destSlotIdx] = heldItem;
-        heldItem = null;
-
-        return true;
+        click(destSlotIdx, false);
+        return heldItem.isEmpty();
     }
 
     @Override
     public void click(ContainerSection section, int index, boolean rightClick) {
-        // TODO: Currently unused externally -- consider if it needs to really be in the interface.
+        int slotIdx = slotPositionToIndex(section, index);
+        if(slotIdx == DROP_SLOT || slotIdx >= 0) {
+            click(slotIdx, rightClick);
+        }
+    }
+
+    /**
+     * Same as a PICKUP click on the real container.
+     */
+    private void click(int slotIdx, boolean rightClick) {
+        if(slotIdx == DROP_SLOT) {
+            if(!heldItem.isEmpty()) {
+                droppedItems.add(heldItem.splitStack(rightClick ? 1 : heldItem.getCount()));
+                if(heldItem.isEmpty()) {
+                    heldItem = ItemStack.EMPTY;
+                }
+            }
+            return;
+        }
+
+        @NotNull Slot slot = container.getSlot(slotIdx);
+        @NotNull ItemStack slotItem = slotItems[slotIdx];
+        if(slotItem.isEmpty()) {
+            if(!heldItem.isEmpty() && slot.isItemValid(heldItem)) {
+                int amount = Math.min(rightClick ? 1 : heldItem.getCount(), slot.getItemStackLimit(heldItem));
+                slotItems[slotIdx] = heldItem.splitStack(amount);
+            }
+        } else if(slot.canTakeStack(InvTweaks.getInstance().getThePlayer())) {
+            if(heldItem.isEmpty()) {
+                heldItem = slotItem.splitStack(rightClick ? (slotItem.getCount() + 1) / 2 : slotItem.getCount());
+            } else if(slot.isItemValid(heldItem)) {
+                if(canMerge(heldItem, slotItem)) {
+                    int amount = rightClick ? 1 : heldItem.getCount();
+                    amount = Math.min(amount, slot.getItemStackLimit(heldItem) - slotItem.getCount());
+                    amount = Math.min(amount, heldItem.getMaxStackSize() - slotItem.getCount());
+                    if(amount > 0) {
+                        heldItem.shrink(amount);
+                        slotItem.grow(amount);
+                    }
+                } else if(heldItem.getCount() <= slot.getItemStackLimit(heldItem)) {
+                    slotItems[slotIdx] = heldItem;
+                    heldItem = slotItem;
+                }
+            } else if(heldItem.getMaxStackSize() > 1 && canMerge(heldItem, slotItem)) {
+                // Output slots only give their whole stack
+                if(slotItem.getCount() + heldItem.getCount() <= heldItem.getMaxStackSize()) {
+                    heldItem.grow(slotItem.getCount());
+                    slotItem.setCount(0);
+                }
+            }
+        }
+
+        if(heldItem.isEmpty()) {
+            heldItem = ItemStack.EMPTY;
+        }
+        if(slotItems[slotIdx].isEmpty()) {
+            slotItems[slotIdx] = ItemStack.EMPTY;
+        }
     }
 
     @Override
@@ -130,7 +290,11 @@ public class MirroredContainerManager implements IContainerManager {
 
     @Override
     public int getSize(ContainerSection section) {
-        return itemRefs.get(section).size();
+        if(hasSection(section)) {
+            return itemRefs.get(section).size();
+        } else {
+            return 0;
+        }
     }
 
     @Override
@@ -147,7 +311,7 @@ public class MirroredContainerManager implements IContainerManager {
 
     @Override
     public boolean isSlotEmpty(ContainerSection section, int slot) {
-        return getItemStack(section, slot).isEmpty();
+        return hasSection(section) && getItemStack(section, slot).isEmpty();
     }
 
     @NotNull
@@ -192,7 +356,14 @@ public class MirroredContainerManager implements IContainerManager {
     @Override
     @NotNull
     public ItemStack getItemStack(ContainerSection section, int index) {
-        return slotItems[slotPositionToIndex(section, index)];
+        int slotIdx = slotPositionToIndex(section, index);
+        return (slotIdx >= 0) ? slotItems[slotIdx] : ItemStack.EMPTY;
+    }
+
+    @NotNull
+    @Override
+    public ItemStack getHeldStack() {
+        return heldItem;
     }
 
     @Override
@@ -202,10 +373,229 @@ public class MirroredContainerManager implements IContainerManager {
 
     @Override
     public void applyChanges() {
-        // TODO: Figure out what is needed to match container with virtual inventory.
+        flushChanges();
         InvTweaksMod.proxy.sortComplete();
     }
 
+    /**
+     * Makes the real container match the mirrored one, then copies it again. The stacks that must leave a slot are
+     * picked up one by one, then put down in the slots missing them: onto an empty slot or the same item, or swapped
+     * with a stack that must leave as well, so that cycles of stacks are walked with a single pickup.
+     *
+     * @return The amount of clicks made
+     */
+    public int flushChanges() {
+        int size = slotItems.length;
+        boolean[] changed = new boolean[size];
+        for(int i = 0; i < size; i++) {
+            changed[i] = !ItemStack.areItemStacksEqual(initialItems[i], slotItems[i]);
+        }
+
+        int clicks = 0;
+        int maxClicks = MAX_CLICKS_PER_SLOT * (size + 1);
+        // The held stack may have been put down in the mirror
+        clicks += putDownLiveHeld(changed, maxClicks);
+        for(int i = 0; i < size && clicks < maxClicks; i++) {
+            if(!changed[i] || !getLiveHeld().isEmpty()) {
+                continue;
+            }
+            @NotNull ItemStack live = getLiveStack(i);
+            if(live.isEmpty() || (canMerge(live, slotItems[i]) && live.getCount() <= slotItems[i].getCount())) {
+                continue;
+            }
+            liveClick(i, false);
+            clicks++;
+            clicks += putDownLiveHeld(changed, maxClicks - clicks);
+        }
+
+        // The clicks are bounded and may not converge: check the whole container again
+        mismatchCount = 0;
+        for(int i = 0; i < size; i++) {
+            if(!ItemStack.areItemStacksEqual(getLiveStack(i), slotItems[i])) {
+                mismatchCount++;
+                if(log.isEnabled(InvTweaksConst.DEBUG)) {
+                    log.info("Slot " + i + " doesn't match the mirrored container");
+                }
+            }
+        }
+        if(!ItemStack.areItemStacksEqual(getLiveHeld(), heldItem)) {
+            mismatchCount++;
+        }
+        if(mismatchCount > 0) {
+            log.warn("The container doesn't match the mirrored one after " + clicks + " clicks (" + mismatchCount + " mismatches)");
+        } else if(log.isEnabled(InvTweaksConst.DEBUG)) {
+            log.info("Applied mirrored container changes with " + clicks + " clicks");
+        }
+
+        reload();
+        return clicks;
+    }
+
+    /**
+     * @return true if the real container matched the mirrored one after the last {@link #flushChanges}
+     */
+    public boolean isInSync() {
+        return mismatchCount == 0;
+    }
+
+    /**
+     * Puts the held stack of the real container down where the mirrored container has it.
+     *
+     * @return The amount of clicks made
+     */
+    private int putDownLiveHeld(@NotNull boolean[] changed, int maxClicks) {
+        int clicks = 0;
+        while(!getLiveHeld().isEmpty() && clicks < maxClicks) {
+            @NotNull ItemStack held = getLiveHeld().copy();
+            int dest = findDestination(held, changed);
+            int dropped = (dest == -1) ? takeDroppedAmount(held) : 0;
+            if(dest != -1) {
+                @NotNull ItemStack live = getLiveStack(dest);
+                int missing = getMissingAmount(dest, held);
+                if((live.isEmpty() || canMerge(held, live)) && held.getCount() > missing) {
+                    for(int i = 0; i < missing; i++) {
+                        liveClick(dest, true);
+                    }
+                    clicks += missing;
+                } else {
+                    // Puts the whole stack down, or swaps it and carries on with the stack that was there
+                    liveClick(dest, false);
+                    clicks++;
+                }
+            } else if(dropped > 0) {
+                if(dropped >= held.getCount()) {
+                    liveClick(DROP_SLOT, false);
+                    clicks++;
+                } else {
+                    for(int i = 0; i < dropped; i++) {
+                        liveClick(DROP_SLOT, true);
+                    }
+                    clicks += dropped;
+                }
+            } else if(canMerge(held, heldItem)) {
+                // Also held in the mirror
+                break;
+            } else {
+                int emptySlot = findEmptySlot(held);
+                if(emptySlot == -1) {
+                    log.warn("Unable to put down " + held + " while applying mirrored container changes");
+                    break;
+                }
+                liveClick(emptySlot, false);
+                clicks++;
+            }
+
+            if(ItemStack.areItemStacksEqual(held, getLiveHeld())) {
+                log.warn("The container didn't take " + held + " while applying mirrored container changes");
+                break;
+            }
+        }
+        return clicks;
+    }
+
+    /**
+     * @return A changed slot missing some of the given stack, the ones taking all of it first, or -1
+     */
+    private int findDestination(@NotNull ItemStack held, @NotNull boolean[] changed) {
+        int swapDest = -1, partialDest = -1;
+        for(int i = 0; i < slotItems.length; i++) {
+            int missing = changed[i] ? getMissingAmount(i, held) : 0;
+            if(missing <= 0) {
+                continue;
+            }
+            @NotNull ItemStack live = getLiveStack(i);
+            if(live.isEmpty() || canMerge(held, live)) {
+                if(held.getCount() <= missing) {
+                    return i;
+                } else if(partialDest == -1) {
+                    partialDest = i;
+                }
+            } else if(swapDest == -1 && held.getCount() <= missing) {
+                swapDest = i;
+            }
+        }
+        return (swapDest != -1) ? swapDest : partialDest;
+    }
+
+    /**
+     * @return How many items like the given stack the real slot lacks to match the mirrored one
+     */
+    private int getMissingAmount(int slotIdx, @NotNull ItemStack stack) {
+        @NotNull ItemStack wanted = slotItems[slotIdx];
+        if(wanted.isEmpty() || !canMerge(wanted, stack)) {
+            return 0;
+        }
+        @NotNull ItemStack live = getLiveStack(slotIdx);
+        if(live.isEmpty()) {
+            return wanted.getCount();
+        } else if(canMerge(live, wanted)) {
+            return wanted.getCount() - live.getCount();
+        } else {
+            return wanted.getCount();
+        }
+    }
+
+    /**
+     * @return How many items like the given stack were dropped in the mirror and not yet in the real container
+     */
+    private int takeDroppedAmount(@NotNull ItemStack stack) {
+        int amount = 0;
+        for(@NotNull ItemStack dropped : droppedItems) {
+            if(amount < stack.getCount() && canMerge(dropped, stack)) {
+                int taken = Math.min(dropped.getCount(), stack.getCount() - amount);
+                dropped.shrink(taken);
+                amount += taken;
+            }
+        }
+        droppedItems.removeIf(ItemStack::isEmpty);
+        return amount;
+    }
+
+    private int findEmptySlot(@NotNull ItemStack stack) {
+        for(int i = 0; i < slotItems.length; i++) {
+            @NotNull Slot slot = container.getSlot(i);
+            if(slotItems[i].isEmpty() && getLiveStack(i).isEmpty() && InvTweaksObfuscation.isBasicSlot(slot) && slot.isItemValid(stack)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @NotNull
+    private ItemStack getLiveStack(int slotIdx) {
+        return InvTweaksObfuscation.getSlotStack(container, slotIdx);
+    }
+
+    @NotNull
+    private ItemStack getLiveHeld() {
+        return InvTweaks.getInstance().getHeldStack();
+    }
+
+    private void liveClick(int slotIdx, boolean rightClick) {
+        int slotNumber = (slotIdx == DROP_SLOT) ? DROP_SLOT : InvTweaksObfuscation.getSlotNumber(container.getSlot(slotIdx));
+        int data = (rightClick) ? 1 : 0;
+        InvTweaksMod.proxy.slotClick(InvTweaks.getInstance().getPlayerController(), container.windowId, slotNumber, data, PICKUP, InvTweaks.getInstance().getThePlayer());
+    }
+
+    private void transfer(int srcSlotIdx, int destSlotIdx, int amount) {
+        slotItems[srcSlotIdx].shrink(amount);
+        slotItems[destSlotIdx].grow(amount);
+        if(slotItems[srcSlotIdx].isEmpty()) {
+            slotItems[srcSlotIdx] = ItemStack.EMPTY;
+        }
+    }
+
+    /**
+     * @return Whether a click would add one stack to the other, like in {@link Container#slotClick}
+     */
+    private static boolean canMerge(@NotNull ItemStack stack1, @NotNull ItemStack stack2) {
+        return !stack1.isEmpty() && !stack2.isEmpty() && stack1.getItem() == stack2.getItem() && stack1.getMetadata() == stack2.getMetadata() && ItemStack.areItemStackTagsEqual(stack1, stack2);
+    }
+
+    private static int getStackLimit(@NotNull Slot slot, @NotNull ItemStack stack) {
+        return Math.min(stack.getMaxStackSize(), slot.getItemStackLimit(stack));
+    }
+
     /**
      * Converts section/index values to slot ID.
      *
@@ -0,0 +1,123 @@
+package invtweaks.container;
+
+import invtweaks.InvTweaksObfuscation;
+import net.minecraft.inventory.Slot;
+import net.minecraft.item.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Moves the stacks of a section to new slots with as few clicks as possible. The moves are split into cycles, and
+ * chains ending in an empty slot, which are walked with the held stack as the only temporary slot: a cycle of k stacks
+ * takes k+1 clicks, a chain of k stacks k clicks, instead of 2 to 6 clicks per moved stack.
+ * <p>
+ * Clicking a stack onto one of the same item merges them instead of swapping, so the cycles where this would happen,
+ * or where a slot doesn't accept its stack, are left untouched.
+ */
+public class PermutationExecutor {
+
+    @NotNull
+    private final ContainerSectionManager containerMgr;
+
+    public PermutationExecutor(@NotNull ContainerSectionManager containerMgr_) {
+        containerMgr = containerMgr_;
+    }
+
+    /**
+     * @param destinations Slot where the stack of each slot must end, or -1 if the slot is empty or its stack stays.
+     *                     Stacks competing for the same slot are left in place.
+     * @param executed     Set for the slots whose stack was moved to its destination
+     * @return The amount of clicks made
+     */
+    public int execute(@NotNull int[] destinations, @NotNull boolean[] executed) {
+        int size = destinations.length;
+        if(!containerMgr.getHeldStack().isEmpty()) {
+            return 0;
+        }
+
+        @NotNull ItemStack[] stacks = new ItemStack[size];
+        for(int i = 0; i < size; i++) {
+            stacks[i] = containerMgr.getItemStack(i);
+        }
+
+        // Keep only the moves of actual stacks to distinct slots
+        @NotNull int[] moves = new int[size];
+        @NotNull int[] sources = new int[size];
+        Arrays.fill(moves, -1);
+        Arrays.fill(sources, -1);
+        for(int i = 0; i < size; i++) {
+            int destination = destinations[i];
+            if(destination >= 0 && destination < size && destination != i && !stacks[i].isEmpty() && sources[destination] == -1) {
+                moves[i] = destination;
+                sources[destination] = i;
+            }
+        }
+
+        int clicks = 0;
+        @NotNull boolean[] visited = new boolean[size];
+        // Chains first, from the stacks that no other stack replaces. The remaining moves form cycles.
+        for(int i = 0; i < size; i++) {
+            if(moves[i] != -1 && sources[i] == -1 && !visited[i]) {
+                clicks += walk(i, moves, stacks, visited, executed);
+            }
+        }
+        for(int i = 0; i < size; i++) {
+            if(moves[i] != -1 && !visited[i]) {
+                clicks += walk(i, moves, stacks, visited, executed);
+            }
+        }
+        return clicks;
+    }
+
+    /**
+     * Picks up the stack of the first slot, then clicks each destination in turn: each click puts the held stack down
+     * and picks up the one that was there, until the held stack lands in an empty slot.
+     *
+     * @return The amount of clicks made, 0 if the walk can't be done by clicks alone
+     */
+    private int walk(int start, @NotNull int[] moves, @NotNull ItemStack[] stacks, @NotNull boolean[] visited, @NotNull boolean[] executed) {
+        @NotNull List<Integer> path = new ArrayList<>();
+        path.add(start);
+        visited[start] = true;
+        for(int slot = moves[start]; ; slot = moves[slot]) {
+            path.add(slot);
+            if(slot == start || moves[slot] == -1) {
+                break;
+            }
+            visited[slot] = true;
+        }
+
+        // Check every click before making the first one
+        @NotNull ItemStack held = stacks[start];
+        for(int i = 1; i < path.size(); i++) {
+            int slot = path.get(i);
+            @NotNull ItemStack slotStack = (slot == start) ? ItemStack.EMPTY : stacks[slot];
+            if(!canPut(slot, held) || (!slotStack.isEmpty() && InvTweaksObfuscation.areItemsStackable(held, slotStack))) {
+                return 0;
+            }
+            held = slotStack;
+        }
+        if(!held.isEmpty()) {
+            // The chain ends in a stack that stays
+            return 0;
+        }
+
+        for(int slot : path) {
+            containerMgr.leftClick(slot);
+        }
+        for(int i = 0; i < path.size() - 1; i++) {
+            executed[path.get(i)] = true;
+        }
+        return path.size();
+    }
+
+    private boolean canPut(int index, @NotNull ItemStack stack) {
+        @Nullable Slot slot = containerMgr.getSlot(index);
+        return slot == null || (slot.isItemValid(stack) && stack.getCount() <= slot.getItemStackLimit(stack));
+    }
+
+}
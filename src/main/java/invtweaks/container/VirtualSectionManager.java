@@ -0,0 +1,329 @@
+package invtweaks.container;
+
+import invtweaks.InvTweaks;
+import invtweaks.InvTweaksConst;
+import invtweaks.InvTweaksObfuscation;
+import net.minecraft.inventory.Slot;
+import net.minecraft.item.ItemStack;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In-memory copy of a container section, with the same operations as {@link ContainerSectionManager}. Sorting is
+ * planned on it without clicking, then the resulting layout is applied to the real section in one pass.
+ * <p>
+ * Each stack remembers the real slot it comes from, so applying the plan first replays the merges between the original
+ * slots, then moves each remaining stack straight to its final slot.
+ */
+public class VirtualSectionManager {
+
+    private static final Logger log = InvTweaks.log;
+
+    @NotNull
+    private final ContainerSectionManager containerMgr;
+    private final int size;
+    @NotNull
+    private final ItemStack[] stacks;
+    /**
+     * Real slot each stack comes from, or -1 for empty slots
+     */
+    @NotNull
+    private final int[] origins;
+    /**
+     * Planned merges as {source origin, destination origin, amount}, in order
+     */
+    @NotNull
+    private final List<int[]> transfers = new ArrayList<>();
+
+    public VirtualSectionManager(@NotNull ContainerSectionManager containerMgr_) {
+        containerMgr = containerMgr_;
+        size = containerMgr.getSize();
+        stacks = new ItemStack[size];
+        origins = new int[size];
+        reload();
+    }
+
+    /**
+     * Copies the real section again, for when it was changed directly. Nothing must have been planned yet.
+     */
+    public void reload() {
+        if(!transfers.isEmpty()) {
+            throw new IllegalStateException("Can't reload a section with planned merges");
+        }
+        for(int i = 0; i < size; i++) {
+            @NotNull ItemStack stack = containerMgr.getItemStack(i);
+            stacks[i] = stack.isEmpty() ? ItemStack.EMPTY : stack.copy();
+            origins[i] = stack.isEmpty() ? -1 : i;
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return The planned stack of the slot. It must not be modified.
+     */
+    @NotNull
+    public ItemStack getItemStack(int index) {
+        return stacks[index];
+    }
+
+    /**
+     * Same as {@link IContainerManager#move}: moves the stack, merges it into the destination as much as possible, or
+     * swaps both stacks.
+     *
+     * @return false if the source is empty or the slots don't accept the stacks
+     */
+    public boolean move(int srcIndex, int destIndex) {
+        @NotNull ItemStack src = stacks[srcIndex], dest = stacks[destIndex];
+        if(src.isEmpty()) {
+            return false;
+        } else if(srcIndex == destIndex) {
+            return true;
+        }
+        if(!isItemValid(destIndex, src)) {
+            return false;
+        }
+
+        if(dest.isEmpty()) {
+            exchange(srcIndex, destIndex);
+        } else if(!InvTweaksObfuscation.areItemsStackable(src, dest)) {
+            if(!isItemValid(srcIndex, dest)) {
+                return false;
+            }
+            exchange(srcIndex, destIndex);
+        } else {
+            // Merge, the remains stay in the source slot
+            int amount = Math.min(src.getCount(), getStackLimit(destIndex, dest) - dest.getCount());
+            if(amount > 0) {
+                transfer(srcIndex, destIndex, amount);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Swaps two stacks, even if they could be merged. Both slots may be empty.
+     *
+     * @return false if the slots don't accept the stacks
+     */
+    public boolean swap(int i, int j) {
+        if(i == j) {
+            return true;
+        }
+        if((!stacks[i].isEmpty() && !isItemValid(j, stacks[i])) || (!stacks[j].isEmpty() && !isItemValid(i, stacks[j]))) {
+            return false;
+        }
+        exchange(i, j);
+        return true;
+    }
+
+    /**
+     * Same as {@link IContainerManager#moveSome}, between stacks of the same item. Splits to empty slots aren't
+     * supported.
+     *
+     * @return false if the destination is empty or holds a different item
+     */
+    public boolean moveSome(int srcIndex, int destIndex, int amount) {
+        @NotNull ItemStack src = stacks[srcIndex], dest = stacks[destIndex];
+        if(src.isEmpty() || srcIndex == destIndex) {
+            return true;
+        }
+        if(!InvTweaksObfuscation.areItemsStackable(src, dest)) {
+            return false;
+        }
+        int movedAmount = Math.min(Math.min(amount, src.getCount()), getStackLimit(destIndex, dest) - dest.getCount());
+        if(movedAmount > 0) {
+            transfer(srcIndex, destIndex, movedAmount);
+        }
+        return true;
+    }
+
+    /**
+     * Applies the planned layout to the real section: replays the merges, then moves every stack to its slot.
+     *
+     * @return The amount of clicks and moves made on the container
+     */
+    public int apply() {
+        return apply(containerMgr);
+    }
+
+    /**
+     * Same as {@link #apply()}, on another manager of the same section holding the same stacks, such as the real
+     * container behind a mirrored one.
+     */
+    public int apply(@NotNull ContainerSectionManager realSection) {
+        int moves = 0;
+
+        // Merges, between the stacks still in their original slots
+        for(@NotNull int[] transfer : transfers) {
+            @NotNull ItemStack from = realSection.getItemStack(transfer[0]), to = realSection.getItemStack(transfer[1]);
+            if(from.isEmpty()) {
+                continue;
+            }
+            // A plain move merges as much as possible, which is usually what was planned
+            boolean fullMerge = transfer[2] == Math.min(from.getCount(), getStackLimit(transfer[1], to) - to.getCount());
+            if(fullMerge ? realSection.move(transfer[0], transfer[1]) : realSection.moveSome(transfer[0], transfer[1], transfer[2])) {
+                moves++;
+            }
+        }
+
+        // Stack from each original slot that must end in each slot, and the reverse
+        @NotNull int[] targets = Arrays.copyOf(origins, size);
+        @NotNull int[] finalSlots = new int[size];
+        Arrays.fill(finalSlots, -1);
+        for(int i = 0; i < size; i++) {
+            if(targets[i] != -1) {
+                finalSlots[targets[i]] = i;
+            }
+        }
+        // Where each original stack currently is, and which one each slot currently holds
+        @NotNull int[] positions = new int[size];
+        @NotNull int[] occupants = new int[size];
+        for(int i = 0; i < size; i++) {
+            boolean empty = realSection.getItemStack(i).isEmpty();
+            positions[i] = empty ? -1 : i;
+            occupants[i] = empty ? -1 : i;
+        }
+        for(int slot = 0; slot < size; slot++) {
+            keepIdenticalStack(realSection, slot, targets, finalSlots, positions, occupants);
+        }
+
+        // Most stacks are moved by cycles of clicks
+        @NotNull int[] destinations = new int[size];
+        @NotNull boolean[] executed = new boolean[size];
+        for(int i = 0; i < size; i++) {
+            destinations[i] = (occupants[i] != -1) ? finalSlots[occupants[i]] : -1;
+        }
+        int clicks = new PermutationExecutor(realSection).execute(destinations, executed);
+        @NotNull int[] movedOccupants = Arrays.copyOf(occupants, size);
+        for(int i = 0; i < size; i++) {
+            if(executed[i]) {
+                movedOccupants[i] = -1;
+            }
+        }
+        for(int i = 0; i < size; i++) {
+            if(executed[i]) {
+                movedOccupants[destinations[i]] = occupants[i];
+            }
+        }
+        Arrays.fill(positions, -1);
+        for(int i = 0; i < size; i++) {
+            occupants[i] = movedOccupants[i];
+            if(occupants[i] != -1) {
+                positions[occupants[i]] = i;
+            }
+        }
+
+        // The others one by one
+        for(int slot = 0; slot < size; slot++) {
+            int stack = targets[slot];
+            if(stack == -1 || positions[stack] == slot || positions[stack] == -1) {
+                continue;
+            }
+            if(keepIdenticalStack(realSection, slot, targets, finalSlots, positions, occupants)) {
+                continue;
+            }
+            int occupant = occupants[slot];
+            if(occupant != -1) {
+                @NotNull ItemStack stackItems = realSection.getItemStack(positions[stack]), occupantItems = realSection.getItemStack(slot);
+                if(InvTweaksObfuscation.areItemsStackable(stackItems, occupantItems)) {
+                    // Moving onto the same item would merge, so the occupant leaves first
+                    int emptySlot = getFirstEmptySlot(occupants);
+                    if(emptySlot != -1 && realSection.move(slot, emptySlot)) {
+                        moves++;
+                        occupants[emptySlot] = occupant;
+                        positions[occupant] = emptySlot;
+                        occupants[slot] = -1;
+                        occupant = -1;
+                    }
+                }
+            }
+
+            int position = positions[stack];
+            if(realSection.move(position, slot)) {
+                moves++;
+                occupants[slot] = stack;
+                positions[stack] = slot;
+                occupants[position] = occupant;
+                if(occupant != -1) {
+                    positions[occupant] = position;
+                }
+            } else if(log.isEnabled(InvTweaksConst.DEBUG)) {
+                log.info("Unable to move " + position + " to " + slot + " as planned");
+            }
+        }
+
+        transfers.clear();
+        if(log.isEnabled(InvTweaksConst.DEBUG)) {
+            log.info("Applied sorting with " + clicks + " clicks and " + moves + " moves");
+        }
+        return clicks + moves;
+    }
+
+    /**
+     * If the slot already holds a stack identical to the one planned there, keeps it and sends the planned one to the
+     * slot of the other instead.
+     *
+     * @return true if the slot is done
+     */
+    private static boolean keepIdenticalStack(@NotNull ContainerSectionManager realSection, int slot, @NotNull int[] targets, @NotNull int[] finalSlots, @NotNull int[] positions, @NotNull int[] occupants) {
+        int stack = targets[slot], occupant = occupants[slot];
+        if(stack == -1 || occupant == -1 || stack == occupant || positions[stack] == -1 || finalSlots[occupant] <= slot) {
+            return false;
+        }
+        if(!ItemStack.areItemStacksEqual(realSection.getItemStack(positions[stack]), realSection.getItemStack(slot))) {
+            return false;
+        }
+        targets[slot] = occupant;
+        targets[finalSlots[occupant]] = stack;
+        finalSlots[stack] = finalSlots[occupant];
+        finalSlots[occupant] = slot;
+        return true;
+    }
+
+    private void exchange(int i, int j) {
+        @NotNull ItemStack stack = stacks[i];
+        stacks[i] = stacks[j];
+        stacks[j] = stack;
+        int origin = origins[i];
+        origins[i] = origins[j];
+        origins[j] = origin;
+    }
+
+    private void transfer(int srcIndex, int destIndex, int amount) {
+        transfers.add(new int[]{origins[srcIndex], origins[destIndex], amount});
+        stacks[destIndex].grow(amount);
+        stacks[srcIndex].shrink(amount);
+        if(stacks[srcIndex].isEmpty()) {
+            stacks[srcIndex] = ItemStack.EMPTY;
+            origins[srcIndex] = -1;
+        }
+    }
+
+    private boolean isItemValid(int index, @NotNull ItemStack stack) {
+        @Nullable Slot slot = containerMgr.getSlot(index);
+        return slot == null || slot.isItemValid(stack);
+    }
+
+    private int getStackLimit(int index, @NotNull ItemStack stack) {
+        @Nullable Slot slot = containerMgr.getSlot(index);
+        return (slot != null) ? Math.min(stack.getMaxStackSize(), slot.getItemStackLimit(stack)) : stack.getMaxStackSize();
+    }
+
+    private static int getFirstEmptySlot(@NotNull int[] occupants) {
+        for(int i = 0; i < occupants.length; i++) {
+            if(occupants[i] == -1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
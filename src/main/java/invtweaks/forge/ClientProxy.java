@@ -4,17 +4,20 @@ import invtweaks.*;
 import invtweaks.api.IItemTreeListener;
 import invtweaks.api.SortingMethod;
 import invtweaks.api.container.ContainerSection;
+import invtweaks.integration.ItemListSorter;
 import invtweaks.network.ITPacketHandlerClient;
 import invtweaks.network.packets.ITPacketClick;
 import invtweaks.network.packets.ITPacketSortComplete;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.inventory.GuiContainer;
 import net.minecraft.client.multiplayer.PlayerControllerMP;
+import net.minecraft.client.resources.IReloadableResourceManager;
 import net.minecraft.client.settings.KeyBinding;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.inventory.ClickType;
 import net.minecraft.inventory.Container;
 import net.minecraft.item.ItemStack;
+import net.minecraftforge.client.ClientCommandHandler;
 import net.minecraftforge.fml.client.FMLClientHandler;
 import net.minecraftforge.fml.client.registry.ClientRegistry;
 import net.minecraftforge.fml.common.event.FMLInitializationEvent;
@@ -25,8 +28,11 @@ import net.minecraftforge.fml.common.gameevent.TickEvent;
 import net.minecraftforge.fml.common.network.FMLNetworkEvent;
 import net.minecraftforge.fml.relauncher.Side;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.lwjgl.input.Keyboard;
 
+import java.util.List;
+
 public class ClientProxy extends CommonProxy {
     public static final KeyBinding KEYBINDING_SORT = new KeyBinding("invtweaks.key.sort", Keyboard.KEY_R, "invtweaks.key.category");
     public boolean serverSupportEnabled = false;
@@ -51,6 +57,12 @@ public class ClientProxy extends CommonProxy {
         instance = new InvTweaks(mc);
 
         ClientRegistry.registerKeyBinding(KEYBINDING_SORT);
+        ClientCommandHandler.instance.registerCommand(new DiagnosticsCommand());
+
+        // Display names change with the language and resource packs
+        if(mc.getResourceManager() instanceof IReloadableResourceManager) {
+            ((IReloadableResourceManager) mc.getResourceManager()).registerReloadListener(resourceManager -> ItemListSorter.clearComparisonKeys());
+        }
     }
 
     @SubscribeEvent
@@ -81,7 +93,9 @@ public class ClientProxy extends CommonProxy {
     @Override
     public void setServerHasInvTweaks(boolean hasInvTweaks) {
         serverSupportDetected = hasInvTweaks;
-        serverSupportEnabled = hasInvTweaks && !InvTweaks.getConfigManager().getConfig().getProperty(InvTweaksConfig.PROP_ENABLE_SERVER_ITEMSWAP).equals(InvTweaksConfig.VALUE_FALSE);
+        // The configuration may still be loading when joining a world, the item swap is then enabled by default
+        @Nullable InvTweaksConfig config = InvTweaks.getConfigManager().getConfig();
+        serverSupportEnabled = hasInvTweaks && (config == null || !config.getProperty(InvTweaksConfig.PROP_ENABLE_SERVER_ITEMSWAP).equals(InvTweaksConfig.VALUE_FALSE));
         //InvTweaks.log.info("Server has support: " + hasInvTweaks + " support enabled: " + serverSupportEnabled);
     }
 
@@ -129,6 +143,33 @@ public class ClientProxy extends CommonProxy {
         return instance.compareItems(i, j);
     }
 
+    @Override
+    public int compareItems(@NotNull ItemStack i, @NotNull ItemStack j, boolean onlyTreeSort) {
+        return instance.compareItems(i, j, onlyTreeSort);
+    }
+
+    @Override
+    public int compareItems(@NotNull ItemStack i, @NotNull ItemStack j, int orderI, int orderJ, boolean onlyTreeSort) {
+        return instance.compareItems(i, j, orderI, orderJ, onlyTreeSort);
+    }
+
+    @NotNull
+    @Override
+    public int[] getItemOrders(@NotNull List<ItemStack> stacks, boolean onlyTreeSort) {
+        return instance.getItemOrders(stacks, onlyTreeSort);
+    }
+
+    @Override
+    public void sortItems(@NotNull List<ItemStack> stacks, boolean onlyTreeSort) {
+        instance.sortItems(stacks, onlyTreeSort);
+    }
+
+    @NotNull
+    @Override
+    public boolean[] matchKeyword(@NotNull List<ItemStack> stacks, @NotNull String keyword) {
+        return instance.matchKeyword(stacks, keyword);
+    }
+
     @Override
     public void sort(ContainerSection section, SortingMethod method) {
         // TODO: This seems like something useful enough to be a util method somewhere.
@@ -155,5 +196,6 @@ public class ClientProxy extends CommonProxy {
     @SubscribeEvent
     public void onConnectionToServer(FMLNetworkEvent.ClientConnectedToServerEvent e) {
         setServerHasInvTweaks(false);
+        instance.warmUp();
     }
 }
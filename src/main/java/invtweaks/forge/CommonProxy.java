@@ -26,7 +26,9 @@ import net.minecraftforge.fml.relauncher.SideOnly;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Arrays;
 import java.util.EnumMap;
+import java.util.List;
 
 public class CommonProxy implements InvTweaksAPI {
     protected static EnumMap<Side, FMLEmbeddedChannel> invtweaksChannel;
@@ -106,6 +108,25 @@ public class CommonProxy implements InvTweaksAPI {
         return 0;
     }
 
+    @Override
+    public int compareItems(@NotNull ItemStack i, @NotNull ItemStack j, int orderI, int orderJ, boolean onlyTreeSort) {
+        return 0;
+    }
+
+    @NotNull
+    @Override
+    public int[] getItemOrders(@NotNull List<ItemStack> stacks, boolean onlyTreeSort) {
+        @NotNull int[] orders = new int[stacks.size()];
+        Arrays.fill(orders, Integer.MAX_VALUE);
+        return orders;
+    }
+
+    @NotNull
+    @Override
+    public boolean[] matchKeyword(@NotNull List<ItemStack> stacks, @NotNull String keyword) {
+        return new boolean[stacks.size()];
+    }
+
     @Override
     public void sort(ContainerSection section, SortingMethod method) {
     }
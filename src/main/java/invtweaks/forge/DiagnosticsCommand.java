@@ -0,0 +1,65 @@
+package invtweaks.forge;
+
+import invtweaks.InvTweaks;
+import invtweaks.InvTweaksConfigManager;
+import invtweaks.InvTweaksConst;
+import invtweaks.InvTweaksItemTree;
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.text.TextComponentString;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Client command reporting the item tree statistics and load timings, and saving the report in the config folder.
+ */
+public class DiagnosticsCommand extends CommandBase {
+
+    @NotNull
+    @Override
+    public String getName() {
+        return "invtweaksdiag";
+    }
+
+    @NotNull
+    @Override
+    public String getUsage(@NotNull ICommandSender sender) {
+        return "/invtweaksdiag";
+    }
+
+    @Override
+    public int getRequiredPermissionLevel() {
+        return 0;
+    }
+
+    @Override
+    public boolean checkPermission(@NotNull MinecraftServer server, @NotNull ICommandSender sender) {
+        return true;
+    }
+
+    @Override
+    public void execute(@NotNull MinecraftServer server, @NotNull ICommandSender sender, @NotNull String[] args) {
+        InvTweaksConfigManager cfgManager = InvTweaks.getConfigManager();
+        if(cfgManager == null || cfgManager.getConfig() == null || cfgManager.isLoading()) {
+            sender.sendMessage(new TextComponentString("Inventory Tweaks: the configuration isn't loaded yet."));
+            return;
+        }
+
+        InvTweaksItemTree tree = cfgManager.getConfig().getTree();
+        String report = tree.getDiagnosticsReport();
+        InvTweaks.log.info(report);
+        try(Writer writer = Files.newBufferedWriter(InvTweaksConst.DIAGNOSTICS_FILE.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(report);
+            sender.sendMessage(new TextComponentString("Inventory Tweaks: diagnostics saved to " + InvTweaksConst.DIAGNOSTICS_FILE));
+        } catch(IOException e) {
+            InvTweaks.log.error("Failed to save the diagnostics report: " + e.getMessage());
+            sender.sendMessage(new TextComponentString("Inventory Tweaks: failed to save the diagnostics report, see the log."));
+        }
+    }
+
+}
@@ -10,6 +10,8 @@ import net.minecraftforge.fml.common.SidedProxy;
 import net.minecraftforge.fml.common.event.*;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.List;
+
 /**
  * ModLoader entry point to load and configure the mod.
  *
@@ -92,6 +94,28 @@ public class InvTweaksMod implements InvTweaksAPI {
         return proxy.compareItems(i, j, onlyTreeSort);
     }
 
+    @Override
+    public int compareItems(@NotNull ItemStack i, @NotNull ItemStack j, int orderI, int orderJ, boolean onlyTreeSort) {
+        return proxy.compareItems(i, j, orderI, orderJ, onlyTreeSort);
+    }
+
+    @NotNull
+    @Override
+    public int[] getItemOrders(@NotNull List<ItemStack> stacks, boolean onlyTreeSort) {
+        return proxy.getItemOrders(stacks, onlyTreeSort);
+    }
+
+    @Override
+    public void sortItems(@NotNull List<ItemStack> stacks, boolean onlyTreeSort) {
+        proxy.sortItems(stacks, onlyTreeSort);
+    }
+
+    @NotNull
+    @Override
+    public boolean[] matchKeyword(@NotNull List<ItemStack> stacks, @NotNull String keyword) {
+        return proxy.matchKeyword(stacks, keyword);
+    }
+
     @Override
     public void sort(ContainerSection section, SortingMethod method) {
         proxy.sort(section, method);
@@ -3,7 +3,7 @@ package invtweaks.forge;
 import invtweaks.InvTweaks;
 import invtweaks.InvTweaksConfig;
 import invtweaks.InvTweaksConfigManager;
-import invtweaks.api.IItemTreeCategory;
+import invtweaks.InvTweaksItemTree;
 import invtweaks.api.IItemTreeItem;
 import net.minecraft.item.ItemStack;
 import net.minecraft.util.text.TextFormatting;
@@ -26,19 +26,19 @@ public class ToolTipEvent {
             return;
         }
         InvTweaksConfigManager cfgManager = InvTweaks.getConfigManager();
-        if(cfgManager == null) { return; }
+        if(cfgManager == null || cfgManager.getConfig() == null || cfgManager.isLoading()) { return; }
 
         if(cfgManager.getConfig().getProperty(InvTweaksConfig.PROP_TOOLTIP_PATH).equals("true")) {
-            List<IItemTreeItem> items = cfgManager.getConfig().getTree().getItems(current.getItem().getRegistryName().toString(), current.getItemDamage(), current.getTagCompound());
+            List<IItemTreeItem> items = cfgManager.getConfig().getTree().getItems(current);
             if(items.isEmpty()) { return; }
 
             Set<String> paths = new HashSet<>();
-            IItemTreeCategory root = cfgManager.getConfig().getTree().getRootCategory();
-            int unsortedZone = cfgManager.getConfig().getTree().getLastTreeOrder();
+            InvTweaksItemTree tree = cfgManager.getConfig().getTree();
+            int unsortedZone = tree.getLastTreeOrder();
             int minOrder = Integer.MAX_VALUE;
             for(IItemTreeItem item : items) {
                 String path = item.getPath();
-                String altPath = root.findKeywordPath(item.getName());
+                String altPath = tree.getKeywordPath(item.getName());
                 int itemOrder = item.getOrder();
                 minOrder = Integer.min(minOrder, itemOrder);
                 //event.getToolTip().add( + "");
@@ -1,6 +1,7 @@
 package invtweaks.integration;
 
 import invtweaks.InvTweaks;
+import invtweaks.InvTweaksItemComparisonKey;
 import invtweaks.forge.CommonProxy;
 import invtweaks.forge.InvTweaksMod;
 import net.minecraft.item.ItemStack;
@@ -11,7 +12,10 @@ import org.jetbrains.annotations.NotNull;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 ;
 
@@ -22,6 +26,11 @@ public class ItemListSorter {
     @SidedProxy(clientSide = "invtweaks.forge.ClientProxy", serverSide = "invtweaks.forge.CommonProxy")
     public static CommonProxy proxy;
 
+    /**
+     * Comparison keys of the item list stacks, which JEI keeps and sorts again on every reload
+     */
+    private static final Map<ItemStack, InvTweaksItemComparisonKey> comparisonKeys = Collections.synchronizedMap(new WeakHashMap<>());
+
     public static void LinkJEITComparator() {
         if(Loader.isModLoaded("jei")) {
             try {
@@ -53,7 +62,15 @@ public class ItemListSorter {
         }
     }
 
+    /**
+     * Forgets the comparison keys, which hold the display names of the stacks
+     */
+    public static void clearComparisonKeys() {
+        comparisonKeys.clear();
+    }
+
     public static void ReloadItemList() {
+        clearComparisonKeys();
         if(Loader.isModLoaded("jei")) {
             try {
                 Class<?> ProxyCommonClient = Class.forName("mezz.jei.startup.ProxyCommonClient");
@@ -76,7 +93,9 @@ public class ItemListSorter {
             if(o1 == null && o2 == null) { return 0; } else if(o1 == null) { return 1; } else if(o2 == null) {
                 return -1;
             }
-            return InvTweaks.getInstance().compareItems(o1, o2, true);
+            try(@NotNull InvTweaksItemComparisonKey.Session ignored = InvTweaksItemComparisonKey.openSession(comparisonKeys)) {
+                return InvTweaks.getInstance().compareItems(o1, o2, true);
+            }
         }
     }
 
@@ -86,7 +105,9 @@ public class ItemListSorter {
             if(o1 == null && o2 == null) { return 0; } else if(o1 == null) { return 1; } else if(o2 == null) {
                 return -1;
             }
-            return InvTweaks.getInstance().compareItems(o1, o2, false);
+            try(@NotNull InvTweaksItemComparisonKey.Session ignored = InvTweaksItemComparisonKey.openSession(comparisonKeys)) {
+                return InvTweaks.getInstance().compareItems(o1, o2, false);
+            }
         }
     }
 